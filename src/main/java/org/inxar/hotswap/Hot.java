@@ -47,6 +47,9 @@ public class Hot {
      * Returns the default static instance.  If none has been setup, a
      * new one will be constructed with path assumptions for a
      * maven-type project and a file.  These can be reconfigured as needed.
+     * If the <code>org.inxar.hotswap.warmup</code> system property
+     * gives a time budget in milliseconds, the compiler is warmed up
+     * in the background meanwhile.
      */
     public static ProxyCompiler getCompiler() {
         if (compiler == null) {
@@ -63,6 +66,9 @@ public class Hot {
             compiler.setSourcepath("src/test/java");
             compiler.getClasspath().add("target/classes");
             compiler.getClasspath().addAll(getClasspathFromFile("target/deps.classpath"));
+
+            // Opt-in; see ProxyCompiler.WARMUP_PROPERTY.
+            compiler.warmUp();
         }
         return compiler;
     }
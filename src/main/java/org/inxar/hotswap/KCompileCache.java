@@ -0,0 +1,235 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent cache of compiled classfiles, kept in a directory that
+ * outlives the JVM and can be shared by several JVMs on one host.
+ * Entries are keyed by a SHA-256 of the classname, the content of
+ * its sourcefile and a description of the compiler and its settings
+ * (see <code>ProxyCompiler.getCompilerIdentity()</code>).
+ *
+ * <P>
+ *
+ * An entry holds the classfiles of the class and of its nested
+ * classes, together with the content hashes of the sourcefiles of
+ * the other classes they referred to when compiled; the entry is
+ * only good while those still hash the same, since a class may have
+ * inlined constants from them.
+ *
+ * <P>
+ *
+ * Entries are written to a temporary file and moved into place, so
+ * a reader sees either a whole entry or none.
+**/
+class KCompileCache
+{
+    KCompileCache(File dir)
+    {
+	this.dir = dir;
+    }
+
+    // ================================
+    // Package Methods
+    // ================================
+
+    File getDirectory()
+    {
+	return dir;
+    }
+
+    /**
+     * Returns the key of the given class compiled from the given
+     * source by the compiler having the given identity.
+    **/
+    static String key(String className, byte[] source, String identity)
+    {
+	MessageDigest md;
+	try {
+	    md = MessageDigest.getInstance("SHA-256");
+	} catch (NoSuchAlgorithmException ex) {
+	    throw new InternalError(ex.toString()); // every JRE has SHA-256
+	}
+
+	md.update(identity.getBytes(StandardCharsets.UTF_8));
+	md.update((byte)0);
+	md.update(className.getBytes(StandardCharsets.UTF_8));
+	md.update((byte)0);
+	md.update(source);
+
+	byte[] digest = md.digest();
+	StringBuilder b = new StringBuilder(2 * digest.length);
+	for (int i = 0; i < digest.length; i++) {
+	    b.append(HEX[(digest[i] >> 4) & 0xf])
+		.append(HEX[digest[i] & 0xf]);
+	}
+	return b.toString();
+    }
+
+    /**
+     * Returns the entry having the given key, or <code>null</code>
+     * if there is none or it cannot be read.  Another JVM may have
+     * written the file, so nothing read from it is trusted: a length
+     * beyond the end of the file makes it unreadable.
+    **/
+    Entry get(String key)
+    {
+	File file = getFile(key);
+	if (!file.exists())
+	    return null;
+
+	try {
+	    // Read whole, so the bytes left are known exactly.
+	    DataInputStream in = new DataInputStream
+		(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+	    try {
+		if (in.readInt() != MAGIC)
+		    return null;
+
+		Entry entry = new Entry();
+
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+		    String name = in.readUTF();
+		    entry.dependencies.put(name, Long.valueOf(in.readLong()));
+		}
+
+		n = in.readInt();
+		for (int i = 0; i < n; i++) {
+		    String name = in.readUTF();
+		    int length = in.readInt();
+		    if (length < 0 || length > in.available())
+			return null;
+		    byte[] bytes = new byte[length];
+		    in.readFully(bytes);
+		    entry.classfiles.put(name, bytes);
+		}
+
+		return entry;
+
+	    } finally {
+		in.close();
+	    }
+	} catch (IOException ioex) {
+	    return null;
+	}
+    }
+
+    /**
+     * Stores the given entry under the given key, replacing any
+     * entry already there.
+    **/
+    void put(String key, Entry entry) throws IOException
+    {
+	File file = getFile(key);
+	File parent = file.getParentFile();
+	if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+	    throw new IOException("Cannot create " + parent);
+
+	File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+	try {
+	    DataOutputStream out = new DataOutputStream
+		(new BufferedOutputStream(new FileOutputStream(tmp)));
+	    try {
+		out.writeInt(MAGIC);
+
+		out.writeInt(entry.dependencies.size());
+		Iterator i = entry.dependencies.entrySet().iterator();
+		while (i.hasNext()) {
+		    Map.Entry e = (Map.Entry)i.next();
+		    out.writeUTF((String)e.getKey());
+		    out.writeLong(((Long)e.getValue()).longValue());
+		}
+
+		out.writeInt(entry.classfiles.size());
+		i = entry.classfiles.entrySet().iterator();
+		while (i.hasNext()) {
+		    Map.Entry e = (Map.Entry)i.next();
+		    byte[] bytes = (byte[])e.getValue();
+		    out.writeUTF((String)e.getKey());
+		    out.writeInt(bytes.length);
+		    out.write(bytes);
+		}
+	    } finally {
+		out.close();
+	    }
+
+	    try {
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	    } catch (AtomicMoveNotSupportedException ex) {
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	    }
+
+	} finally {
+	    tmp.delete();	// if the move did not happen
+	}
+    }
+
+    // ================================
+    // Protected Methods
+    // ================================
+
+    protected File getFile(String key)
+    {
+	return new File(new File(dir, key.substring(0, 2)), key.substring(2) + ".entry");
+    }
+
+    // ================================
+    // Inner Classes
+    // ================================
+
+    static final class Entry
+    {
+	final Map classfiles = new HashMap(); // byte[] keyed by className
+	final Map dependencies = new HashMap(); // Long source hashes keyed by className
+    }
+
+    // ================================
+    // Class Fields
+    // ================================
+
+    static final int MAGIC = 0x4b434301; // "KCC" version 1
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    protected final File dir;
+}
@@ -0,0 +1,391 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A compiler JVM that stays up between compiles, serving
+ * <code>KDaemonCompiler</code>s over a socket on the loopback
+ * interface.  Each configuration (classpath, sourcepath, destination
+ * and options) gets a <code>KJavaxCompiler</code> of its own, kept
+ * warm for the life of the daemon; classfiles are written to the
+ * destination path.
+ *
+ * <P>
+ *
+ * The daemon reads a token from the first line of its standard input
+ * and serves only requests that carry it.  It then prints
+ * <code>PORT</code> and the port it listens on to its standard output,
+ * and exits when its standard input reaches end-of-file, that is when
+ * the process that started it goes away.  It can also be started by
+ * hand, giving the port as the only argument:
+ *
+ * <pre>
+ * echo secret | java -cp hotswap.jar org.inxar.hotswap.KCompileDaemon 4455
+ * </pre>
+ *
+ * <P>
+ *
+ * A request is the token, an operation code and, for
+ * <code>OP_COMPILE</code>, the configuration followed by the
+ * classnames and sourcefiles to compile together.  The response is a
+ * status and, per class, the return code, command, output and error
+ * of its <code>ProxyCompileEvent</code>.
+**/
+public class KCompileDaemon
+{
+    // ================================
+    // Constructors
+    // ================================
+
+    KCompileDaemon(String token)
+    {
+	this.token = token;
+    }
+
+    // ================================
+    // Class Methods
+    // ================================
+
+    public static void main(String[] argv) throws IOException
+    {
+	int port = argv.length > 0 ? Integer.parseInt(argv[0]) : 0;
+
+	final BufferedReader stdin = new BufferedReader
+	    (new InputStreamReader(System.in, StandardCharsets.UTF_8));
+	String token = stdin.readLine();
+	if (token == null)
+	    System.exit(1);
+
+	ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+	// Standard output carries the port and nothing else.
+	PrintStream out = System.out;
+	System.setOut(System.err);
+	out.println("PORT " + server.getLocalPort());
+	out.flush();
+
+	Thread watchdog = new Thread("hotswap-daemon-watchdog") {
+		public void run() {
+		    try {
+			while (stdin.read() != -1)
+			    ;
+		    } catch (IOException ioex) {
+		    }
+		    System.exit(0);
+		}
+	    };
+	watchdog.setDaemon(true);
+	watchdog.start();
+
+	new KCompileDaemon(token).serve(server);
+    }
+
+    // ================================
+    // Package Methods
+    // ================================
+
+    /**
+     * Accepts connections until the socket is closed, serving each
+     * one on a thread of its own.
+    **/
+    void serve(ServerSocket server) throws IOException
+    {
+	ExecutorService threads = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, "hotswap-daemon-connection");
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+
+	while (true) {
+	    final Socket socket = server.accept();
+	    threads.execute(new Runnable() {
+		    public void run() {
+			try {
+			    handle(socket);
+			} catch (IOException ioex) {
+			    System.err.println("[KCompileDaemon] " + ioex);
+			} finally {
+			    try {
+				socket.close();
+			    } catch (IOException ioex) {
+			    }
+			}
+		    }
+		});
+	}
+    }
+
+    /**
+     * Serves the requests of one connection until it is closed.
+    **/
+    void handle(Socket socket) throws IOException
+    {
+	DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+	while (true) {
+	    String t;
+	    try {
+		t = in.readUTF();
+	    } catch (java.io.EOFException ex) {
+		return;
+	    }
+	    if (!token.equals(t))
+		return;
+
+	    int op = in.readInt();
+	    switch (op) {
+
+	    case OP_PING:
+		out.writeInt(STATUS_OK);
+		break;
+
+	    case OP_COMPILE:
+		compile(in, out);
+		break;
+
+	    default:
+		out.writeInt(STATUS_ERROR);
+		writeString(out, "Unknown operation " + op);
+	    }
+	    out.flush();
+	}
+    }
+
+    /**
+     * Reads a compile request and writes its response.
+    **/
+    void compile(DataInputStream in, DataOutputStream out) throws IOException
+    {
+	List classpath = readStrings(in);
+	String sourcepath = readString(in);
+	String dst = readString(in);
+	List options = readStrings(in);
+	long timeout = in.readLong();
+
+	int n = in.readInt();
+	String[] classNames = new String[n];
+	ProxyCompiler.Resource[] sourceFiles = new ProxyCompiler.Resource[n];
+	for (int i = 0; i < n; i++) {
+	    classNames[i] = in.readUTF();
+	    sourceFiles[i] = new KFileResource(new File(in.readUTF()));
+	}
+
+	KJavaxCompiler compiler;
+	int[] rcs;
+	Map events = new HashMap();
+	try {
+	    compiler = getCompiler(classpath, sourcepath, dst, options);
+
+	    ProxyCompiler.Resource[] classFiles = new ProxyCompiler.Resource[n];
+	    for (int i = 0; i < n; i++)
+		classFiles[i] = compiler.getClassFile(classNames[i]);
+
+	    // The client has decided these need compiling.  The
+	    // compiler is shared by every client having the same
+	    // configuration, so the timeout goes with the call.
+	    results.set(events);
+	    timeouts.set(Long.valueOf(timeout));
+	    try {
+		rcs = compiler.compileLocked(classNames, sourceFiles, classFiles, true);
+	    } finally {
+		results.remove();
+		timeouts.remove();
+	    }
+
+	} catch (RuntimeException ex) {
+	    out.writeInt(STATUS_ERROR);
+	    writeString(out, ex.toString());
+	    return;
+	}
+
+	out.writeInt(STATUS_OK);
+	out.writeInt(n);
+	for (int i = 0; i < n; i++) {
+	    ProxyCompileEvent evt = (ProxyCompileEvent)events.get(classNames[i]);
+	    out.writeInt(rcs[i]);
+	    List diagnostics = evt != null ? evt.getDiagnostics() : Collections.EMPTY_LIST;
+	    writeString(out, evt != null ? evt.getCommand() : null);
+	    // The client prints the diagnostics itself.
+	    writeString(out, evt != null && diagnostics.isEmpty() ? evt.getOut() : null);
+	    writeString(out, evt != null ? evt.getErr() : null);
+	    writeDiagnostics(out, diagnostics);
+	}
+    }
+
+    /**
+     * Returns the compiler for the given configuration, creating it
+     * on first use.
+    **/
+    synchronized KJavaxCompiler getCompiler(List classpath, String sourcepath, String dst, List options)
+    {
+	List key = new ArrayList();
+	key.add(classpath);
+	key.add(sourcepath);
+	key.add(dst);
+	key.add(options);
+
+	KJavaxCompiler compiler = (KJavaxCompiler)compilers.get(key);
+	if (compiler == null) {
+	    compiler = new KJavaxCompiler() {
+		    public long getCompileTimeout() {
+			Long timeout = (Long)timeouts.get();
+			return timeout != null ? timeout.longValue() : super.getCompileTimeout();
+		    }
+		};
+	    compiler.getClasspath().addAll(classpath);
+	    if (sourcepath != null)
+		compiler.setSourcepath(sourcepath);
+	    compiler.setDestinationpath(dst);
+	    compiler.getOptions().addAll(options);
+	    compiler.addCompileListener(new ProxyEventListener() {
+		    public void notify(ProxyEvent evt) {
+			Map events = (Map)results.get();
+			if (events != null)
+			    events.put(((ProxyCompileEvent)evt).getClassName(), evt);
+		    }
+		});
+	    compilers.put(key, compiler);
+	}
+	return compiler;
+    }
+
+    // ================================
+    // Protocol Methods
+    // ================================
+
+    /**
+     * Writes a string of any length, or <code>null</code>.
+    **/
+    static void writeString(DataOutputStream out, String s) throws IOException
+    {
+	if (s == null) {
+	    out.writeInt(-1);
+	    return;
+	}
+	byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+	out.writeInt(bytes.length);
+	out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException
+    {
+	int n = in.readInt();
+	if (n < 0)
+	    return null;
+	byte[] bytes = new byte[n];
+	in.readFully(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStrings(DataOutputStream out, List list) throws IOException
+    {
+	out.writeInt(list.size());
+	for (int i = 0; i < list.size(); i++)
+	    writeString(out, String.valueOf(list.get(i)));
+    }
+
+    static List readStrings(DataInputStream in) throws IOException
+    {
+	int n = in.readInt();
+	List list = new ArrayList(n);
+	for (int i = 0; i < n; i++)
+	    list.add(readString(in));
+	return list;
+    }
+
+    /**
+     * Writes the fields of each of the given
+     * <code>ProxyDiagnostic</code>s.
+    **/
+    static void writeDiagnostics(DataOutputStream out, List list) throws IOException
+    {
+	out.writeInt(list.size());
+	for (int i = 0; i < list.size(); i++) {
+	    ProxyDiagnostic d = (ProxyDiagnostic)list.get(i);
+	    out.writeInt(d.getKind());
+	    writeString(out, d.getSource());
+	    out.writeLong(d.getLine());
+	    out.writeLong(d.getColumn());
+	    writeString(out, d.getCode());
+	    writeString(out, d.getMessage());
+	}
+    }
+
+    static List readDiagnostics(DataInputStream in) throws IOException
+    {
+	int n = in.readInt();
+	List list = new ArrayList(n);
+	for (int i = 0; i < n; i++)
+	    list.add(new ProxyDiagnostic(in.readInt(), readString(in),
+					 in.readLong(), in.readLong(),
+					 readString(in), readString(in)));
+	return list;
+    }
+
+    // ================================
+    // Class Fields
+    // ================================
+
+    static final int OP_PING = 1;
+    static final int OP_COMPILE = 2;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    protected final String token;
+    protected final Map compilers = new HashMap(); // KJavaxCompilers keyed by configuration
+
+    // The ProxyCompileEvents of the compile running on this thread,
+    // keyed by className.
+    protected final ThreadLocal results = new ThreadLocal();
+
+    // The Long timeout of the compile running on this thread.
+    protected final ThreadLocal timeouts = new ThreadLocal();
+}
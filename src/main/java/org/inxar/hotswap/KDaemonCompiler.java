@@ -0,0 +1,451 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Concrete <code>ProxyCompiler</code> implementation that compiles in
+ * a <code>KCompileDaemon</code>: a separate, long-lived compiler JVM
+ * started on first use and reached over a socket on the loopback
+ * interface.  Compiles stay out of this JVM's heap, as with
+ * <code>KSystemCompiler</code>, but JVM startup and the classpath
+ * scan are paid once rather than on every compile.  If the daemon
+ * dies it is started again on the next compile.
+ *
+ * <P>
+ *
+ * Classfiles are written to the destination path by the daemon.
+**/
+public class KDaemonCompiler extends ProxyCompiler
+{
+    // ================================
+    // Constructors
+    // ================================
+
+    /**
+     * Constructs a new <code>ProxyCompiler</code> having the given
+     * parent <code>ClassLoader</code>.
+     **/
+    public KDaemonCompiler(ClassLoader parent)
+    {
+	super(parent);
+    }
+
+    /**
+     * Constructs a new <code>ProxyCompiler</code> having a default
+     * <code>ClassLoader</code>.
+     **/
+    public KDaemonCompiler()
+    {
+	super();
+    }
+
+    // ================================
+    // Public Methods
+    // ================================
+
+    /**
+     * Returns the <code>java</code> command the daemon is started
+     * with.  The default is the one of this JVM.
+     **/
+    synchronized public String getJava()
+    {
+	return java;
+    }
+
+    /**
+     * Sets the <code>java</code> command the daemon is started with,
+     * for instance that of a JDK when this JVM runs on a JRE.  It
+     * takes effect when the daemon is next started.
+     **/
+    synchronized public void setJava(String java)
+    {
+	this.java = java;
+    }
+
+    /**
+     * Returns the mutable <code>List</code> of JVM options the daemon
+     * is started with, such as <code>-Xmx256m</code>.  Changes take
+     * effect when the daemon is next started.
+     **/
+    synchronized public List getJvmOptions()
+    {
+	if (jvmOpts == null)
+	    jvmOpts = new ArrayList();
+	return jvmOpts;
+    }
+
+    /**
+     * Stops the daemon, if it is running.  The next compile starts a
+     * new one.
+     **/
+    synchronized public void shutdown()
+    {
+	if (daemon != null)
+	    daemon.destroy();
+	daemon = null;
+    }
+
+    // ================================
+    // ProxyCompiler Methods
+    // ================================
+
+    int compile(String className,
+		ProxyCompiler.Resource sourceFile,
+		ProxyCompiler.Resource classFile)
+    {
+	return compile(new String[]{ className },
+		       new ProxyCompiler.Resource[]{ sourceFile },
+		       new ProxyCompiler.Resource[]{ classFile },
+		       false)[0];
+    }
+
+    /**
+     * Sends all expired sourcefiles among the given ones to the
+     * daemon, to be compiled together.  If <code>force</code> is
+     * <code>true</code>, current classfiles count as expired.
+     **/
+    int[] compile(String[] classNames,
+		  ProxyCompiler.Resource[] sourceFiles,
+		  ProxyCompiler.Resource[] classFiles,
+		  boolean force)
+    {
+	int n = classNames.length;
+	int[] rcs = new int[n];
+	List expired = new ArrayList();
+
+	for (int i = 0; i < n; i++) {
+
+	    // Check to see if recompilation is advised.  A forced
+	    // compile takes a current classfile for an expired one.
+	    int stat = filestat(sourceFiles[i], classFiles[i]);
+	    if (force && stat == RC_FILESTAT_CLASS_CURRENT)
+		stat = RC_FILESTAT_CLASS_EXPIRED;
+
+	    switch (stat) {
+
+		/* if it cannot be determined, propogate this uncertainty */
+	    case RC_FILESTAT_UNKNOWN:
+		rcs[i] = RC_COMPILE_UNKNOWN;
+		break;
+
+		/* if the sourcefile does not exist, propogate this. */
+	    case RC_FILESTAT_SOURCE_MISSING:
+		rcs[i] = RC_COMPILE_SOURCE_MISSING;
+		break;
+
+		/* if the classfile is current there is no need run the
+		   compilation; return trivial */
+	    case RC_FILESTAT_CLASS_CURRENT:
+		rcs[i] = RC_COMPILE_TRIVIAL;
+		break;
+
+		/* if the classfile is expired then continue processing */
+	    case RC_FILESTAT_CLASS_EXPIRED:
+		rcs[i] = RC_COMPILE_UNKNOWN;
+		expired.add(Integer.valueOf(i));
+		break;
+
+	    default:
+		throw new InternalError(); // bad coding
+	    }
+	}
+
+	if (expired.isEmpty())
+	    return rcs;
+
+	int m = expired.size();
+	String[] cmds = new String[m];
+	String[] outs = new String[m];
+	String[] errs = new String[m];
+	List[] diagnostics = new List[m];
+
+	try {
+	    int[] result;
+	    try {
+		result = request(classNames, sourceFiles, expired, cmds, outs, errs, diagnostics);
+	    } catch (EOFException | SocketException ex) {
+		// The daemon may have died since the last compile.  An
+		// error it reports itself would only happen again.
+		shutdown();
+		result = request(classNames, sourceFiles, expired, cmds, outs, errs, diagnostics);
+	    }
+	    for (int j = 0; j < m; j++)
+		rcs[((Integer)expired.get(j)).intValue()] = result[j];
+
+	} catch (SocketTimeoutException stex) {
+	    // The daemon did not even abandon the compile in time;
+	    // the next compile starts a new one.
+	    shutdown();
+	    for (int j = 0; j < m; j++) {
+		rcs[((Integer)expired.get(j)).intValue()] = RC_COMPILE_TIMEOUT;
+		cmds[j] = "<compile daemon>";
+		errs[j] = "Compile daemon killed after " + getCompileTimeout() + " ms.";
+	    }
+
+	} catch (IOException ioex) {
+	    StringWriter sw = new StringWriter();
+	    ioex.printStackTrace(new PrintWriter(sw));
+	    for (int j = 0; j < m; j++) {
+		rcs[((Integer)expired.get(j)).intValue()] = RC_COMPILE_FAILURE;
+		cmds[j] = "<compile daemon>";
+		errs[j] = sw.toString();
+	    }
+	}
+
+	// The daemon answers once the compile is done, so its
+	// diagnostics are streamed from here.
+	if (hasOutputListeners()) {
+	    for (int j = 0; j < m; j++) {
+		if (diagnostics[j] == null)
+		    continue;
+		int i = ((Integer)expired.get(j)).intValue();
+		for (int k = 0; k < diagnostics[j].size(); k++)
+		    fireOutput(new ProxyCompileOutputEvent
+			       (this, classNames[i], (ProxyDiagnostic)diagnostics[j].get(k)));
+	    }
+	}
+
+	for (int j = 0; j < m; j++) {
+	    int i = ((Integer)expired.get(j)).intValue();
+	    fire(new ProxyCompileEvent(this, classNames[i], cmds[j], outs[j], errs[j], rcs[i], diagnostics[j]));
+	}
+
+	return rcs;
+    }
+
+    /**
+     * Adds the <code>java</code> command of the daemon and what it
+     * prints for <code>-version</code>: classes are compiled by that
+     * JVM's compiler, not this one's.
+     **/
+    protected String getCompilerIdentity()
+    {
+	String java = getJava();
+	String version = getCommandVersion(Collections.singletonList(java));
+	if (version == null)
+	    return null;
+	return super.getCompilerIdentity()
+	    + '\n' + java
+	    + '\n' + version;
+    }
+
+    // ================================
+    // Protected Methods
+    // ================================
+
+    /**
+     * Sends one compile request for the given classes to the daemon,
+     * returning their return codes and filling in the command, output,
+     * error and diagnostics of each.
+     **/
+    protected int[] request(String[] classNames,
+			    ProxyCompiler.Resource[] sourceFiles,
+			    List indices,
+			    String[] cmds, String[] outs, String[] errs,
+			    List[] diagnostics)
+	throws IOException
+    {
+	Daemon d = getDaemon();
+	Socket socket = new Socket(InetAddress.getLoopbackAddress(), d.port);
+	try {
+	    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+	    out.writeUTF(d.token);
+	    out.writeInt(KCompileDaemon.OP_COMPILE);
+	    KCompileDaemon.writeStrings(out, getClasspath());
+	    Object sourcepath = getSourcepath();
+	    KCompileDaemon.writeString(out, sourcepath != null ? sourcepath.toString() : null);
+	    KCompileDaemon.writeString(out, getDestinationpath());
+	    KCompileDaemon.writeStrings(out, getOptions());
+	    long timeout = getCompileTimeout();
+	    out.writeLong(timeout);
+	    if (timeout > 0)
+		socket.setSoTimeout((int)Math.min(Integer.MAX_VALUE, timeout + DAEMON_GRACE));
+
+	    int m = indices.size();
+	    out.writeInt(m);
+	    for (int j = 0; j < m; j++) {
+		int i = ((Integer)indices.get(j)).intValue();
+		out.writeUTF(classNames[i]);
+		out.writeUTF(sourceFiles[i].toFile().getAbsolutePath());
+	    }
+	    out.flush();
+
+	    if (in.readInt() != KCompileDaemon.STATUS_OK)
+		throw new IOException("Compile daemon failed: " + KCompileDaemon.readString(in));
+
+	    if (in.readInt() != m)
+		throw new IOException("Compile daemon answered for the wrong number of classes");
+
+	    int[] rcs = new int[m];
+	    for (int j = 0; j < m; j++) {
+		rcs[j] = in.readInt();
+		cmds[j] = KCompileDaemon.readString(in);
+		outs[j] = KCompileDaemon.readString(in);
+		errs[j] = KCompileDaemon.readString(in);
+		diagnostics[j] = KCompileDaemon.readDiagnostics(in);
+	    }
+	    return rcs;
+
+	} finally {
+	    socket.close();
+	}
+    }
+
+    /**
+     * Returns the running daemon, starting one if there is none.
+     **/
+    synchronized protected Daemon getDaemon() throws IOException
+    {
+	if (daemon != null && daemon.process.isAlive())
+	    return daemon;
+	shutdown();
+
+	List cmd = new ArrayList();
+	cmd.add(java);
+	cmd.addAll(getJvmOptions());
+	cmd.add("-cp");
+	cmd.add(getDaemonClasspath());
+	cmd.add(KCompileDaemon.class.getName());
+
+	ProcessBuilder pb = new ProcessBuilder(cmd);
+	pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+	Process process = pb.start();
+
+	try {
+	    byte[] bytes = new byte[16];
+	    random.nextBytes(bytes);
+	    StringBuilder token = new StringBuilder();
+	    for (int i = 0; i < bytes.length; i++)
+		token.append(Integer.toHexString((bytes[i] & 0xff) | 0x100).substring(1));
+
+	    // Keep the daemon's stdin open; closing it stops the daemon.
+	    OutputStream stdin = process.getOutputStream();
+	    stdin.write((token + "\n").getBytes(StandardCharsets.UTF_8));
+	    stdin.flush();
+
+	    BufferedReader stdout = new BufferedReader
+		(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+	    String line = stdout.readLine();
+	    if (line == null || !line.startsWith("PORT "))
+		throw new IOException("Compile daemon did not start: " + line);
+
+	    daemon = new Daemon(process, Integer.parseInt(line.substring(5).trim()), token.toString());
+	    log("started compile daemon on port " + daemon.port);
+	    return daemon;
+
+	} catch (IOException ioex) {
+	    process.destroy();
+	    throw ioex;
+	} catch (RuntimeException ex) {
+	    process.destroy();
+	    throw ex;
+	}
+    }
+
+    /**
+     * Returns the classpath the daemon is started with: the location
+     * this library was loaded from or, failing that, the classpath of
+     * this JVM.
+     **/
+    protected String getDaemonClasspath()
+    {
+	try {
+	    CodeSource source = KCompileDaemon.class.getProtectionDomain().getCodeSource();
+	    if (source != null && source.getLocation() != null)
+		return new File(source.getLocation().toURI()).getPath();
+	} catch (URISyntaxException ex) {
+	} catch (SecurityException ex) {
+	} catch (IllegalArgumentException ex) {
+	}
+	return System.getProperty("java.class.path");
+    }
+
+    // ================================
+    // Inner Classes
+    // ================================
+
+    /**
+     * A running daemon process, the port it listens on and the token
+     * it expects.
+     **/
+    protected static class Daemon
+    {
+	Daemon(Process process, int port, String token)
+	{
+	    this.process = process;
+	    this.port = port;
+	    this.token = token;
+	}
+
+	void destroy()
+	{
+	    process.destroy();
+	}
+
+	final Process process;
+	final int port;
+	final String token;
+    }
+
+    // ================================
+    // Class Fields
+    // ================================
+
+    // Millis the daemon gets beyond the compile timeout to abandon
+    // the compile and answer before it is killed.
+    static final long DAEMON_GRACE = 5000L;
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    protected String java = System.getProperty("java.home")
+	+ File.separator + "bin" + File.separator + "java";
+    protected List jvmOpts;	// daemon JVM options
+    protected Daemon daemon;
+    protected final SecureRandom random = new SecureRandom();
+}
@@ -0,0 +1,252 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads the names of the classes a classfile refers to: those named
+ * by <code>CONSTANT_Class</code> entries, and those appearing in the
+ * descriptors of member references, method types, and of the fields
+ * and methods of the class itself.  Names are returned in dotted
+ * form with any nested part (from the first <code>'$'</code> on)
+ * dropped, since a <code>ProxyClass</code> is compiled and loaded per
+ * top-level class.
+**/
+class KDependencyScanner
+{
+    // ================================
+    // Package Methods
+    // ================================
+
+    /**
+     * Returns the <code>Set</code> of top-level classnames the given
+     * classfile refers to, not including its own.
+    **/
+    static Set scan(byte[] classfile) throws IOException
+    {
+	DataInputStream in = new DataInputStream(new ByteArrayInputStream(classfile));
+	Pool pool = new Pool(in);
+	String[] utf8 = pool.utf8;
+	int[] classes = pool.classes;
+	int[] descriptors = pool.descriptors;
+	int ndescriptors = pool.ndescriptors;
+	int count = utf8.length;
+
+	Set names = new HashSet();
+
+	for (int i = 1; i < count; i++) {
+	    if (classes[i] == 0)
+		continue;
+	    String name = utf8[classes[i]];
+	    if (name.charAt(0) == '[')
+		addDescriptor(names, name);
+	    else
+		add(names, name);
+	}
+	for (int i = 0; i < ndescriptors; i++)
+	    addDescriptor(names, utf8[descriptors[i]]);
+
+	in.readUnsignedShort();	// access_flags
+	String self = top(utf8[classes[in.readUnsignedShort()]].replace('/', '.'));
+	in.readUnsignedShort();	// super_class
+	in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+
+	// fields, then methods
+	for (int k = 0; k < 2; k++) {
+	    int n = in.readUnsignedShort();
+	    for (int i = 0; i < n; i++) {
+		in.readUnsignedShort();	// access_flags
+		in.readUnsignedShort();	// name_index
+		addDescriptor(names, utf8[in.readUnsignedShort()]);
+		skipAttributes(in);
+	    }
+	}
+
+	names.remove(self);
+	return names;
+    }
+
+    /**
+     * Returns the binary names, in dotted form, of the classes nested
+     * in the given top-level class that the given classfile refers
+     * to.  Following these from the classfile of the top-level class
+     * reaches every nested class of its current version, and none
+     * left behind by an older one.
+    **/
+    static Set nested(byte[] classfile, String className) throws IOException
+    {
+	Pool pool = new Pool(new DataInputStream(new ByteArrayInputStream(classfile)));
+	String prefix = className.replace('.', '/') + '$';
+
+	Set names = new HashSet();
+	for (int i = 1; i < pool.classes.length; i++) {
+	    if (pool.classes[i] == 0)
+		continue;
+	    String name = pool.utf8[pool.classes[i]];
+	    if (name.startsWith(prefix))
+		names.add(name.replace('/', '.'));
+	}
+	return names;
+    }
+
+    // ================================
+    // Protected Methods
+    // ================================
+
+    protected static void skipAttributes(DataInputStream in) throws IOException
+    {
+	int n = in.readUnsignedShort();
+	for (int i = 0; i < n; i++) {
+	    in.readUnsignedShort();
+	    in.skipBytes(in.readInt());
+	}
+    }
+
+    /**
+     * Adds every class named in a field or method descriptor.
+    **/
+    protected static void addDescriptor(Set names, String desc)
+    {
+	int i = 0;
+	while ((i = desc.indexOf('L', i)) >= 0) {
+	    int end = desc.indexOf(';', i);
+	    if (end < 0)
+		return;
+	    add(names, desc.substring(i + 1, end));
+	    i = end + 1;
+	}
+    }
+
+    protected static void add(Set names, String internalName)
+    {
+	names.add(top(internalName.replace('/', '.')));
+    }
+
+    /**
+     * Drops the nested part of a classname.
+    **/
+    static String top(String className)
+    {
+	int i = className.indexOf('$');
+	return i > 0 ? className.substring(0, i) : className;
+    }
+
+    // ================================
+    // Inner Classes
+    // ================================
+
+    /**
+     * The parts of a constant pool the scanner needs, read from a
+     * stream positioned at the start of a classfile; the stream is
+     * left positioned just after the pool.
+    **/
+    static final class Pool
+    {
+	Pool(DataInputStream in) throws IOException
+	{
+	    if (in.readInt() != 0xCAFEBABE)
+		throw new IOException("Not a classfile");
+	    in.readUnsignedShort();	// minor
+	    in.readUnsignedShort();	// major
+
+	    int count = in.readUnsignedShort();
+	    utf8 = new String[count];
+	    classes = new int[count];
+	    descriptors = new int[count];
+
+	    for (int i = 1; i < count; i++) {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case CONSTANT_Utf8:
+		    utf8[i] = in.readUTF();
+		    break;
+		case CONSTANT_Class:
+		    classes[i] = in.readUnsignedShort();
+		    break;
+		case CONSTANT_NameAndType:
+		    in.readUnsignedShort();
+		    descriptors[ndescriptors++] = in.readUnsignedShort();
+		    break;
+		case CONSTANT_MethodType:
+		    descriptors[ndescriptors++] = in.readUnsignedShort();
+		    break;
+		case CONSTANT_Integer:
+		case CONSTANT_Float:
+		case CONSTANT_Fieldref:
+		case CONSTANT_Methodref:
+		case CONSTANT_InterfaceMethodref:
+		case CONSTANT_Dynamic:
+		case CONSTANT_InvokeDynamic:
+		    in.readInt();
+		    break;
+		case CONSTANT_Long:
+		case CONSTANT_Double:
+		    in.readLong();
+		    i++;		// takes two entries
+		    break;
+		case CONSTANT_String:
+		case CONSTANT_Module:
+		case CONSTANT_Package:
+		    in.readUnsignedShort();
+		    break;
+		case CONSTANT_MethodHandle:
+		    in.readUnsignedByte();
+		    in.readUnsignedShort();
+		    break;
+		default:
+		    throw new IOException("Unknown constant pool tag " + tag + " at " + i);
+		}
+	    }
+	}
+
+	final String[] utf8;
+	final int[] classes;	// pool index -> name index
+	final int[] descriptors;
+	int ndescriptors;
+    }
+
+    // ================================
+    // Class Fields
+    // ================================
+
+    static final int CONSTANT_Utf8               = 1;
+    static final int CONSTANT_Integer            = 3;
+    static final int CONSTANT_Float              = 4;
+    static final int CONSTANT_Long               = 5;
+    static final int CONSTANT_Double             = 6;
+    static final int CONSTANT_Class              = 7;
+    static final int CONSTANT_String             = 8;
+    static final int CONSTANT_Fieldref           = 9;
+    static final int CONSTANT_Methodref          = 10;
+    static final int CONSTANT_InterfaceMethodref = 11;
+    static final int CONSTANT_NameAndType        = 12;
+    static final int CONSTANT_MethodHandle       = 15;
+    static final int CONSTANT_MethodType         = 16;
+    static final int CONSTANT_Dynamic            = 17;
+    static final int CONSTANT_InvokeDynamic      = 18;
+    static final int CONSTANT_Module             = 19;
+    static final int CONSTANT_Package            = 20;
+}
@@ -0,0 +1,193 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Concrete <code>Writer</code> that recognizes javac's printed
+ * diagnostics in the text written to it and turns them into
+ * <code>ProxyDiagnostic</code>s, passing the text on to another
+ * writer if one is given.  A diagnostic starts at a line like
+ * "<code>Foo.java:12: error: ';' expected</code>"; the lines after it
+ * are the rest of its message, except the excerpt of the source and
+ * the caret under it, from which the column is taken.  Each
+ * diagnostic is passed to <code>report()</code> once the next one
+ * starts, or when the writer is closed; other lines are passed to
+ * <code>other()</code>.
+**/
+class KDiagnosticParser extends Writer
+{
+    KDiagnosticParser(Writer out)
+    {
+	this.out = out;
+    }
+
+    /**
+     * Returns the diagnostics recognized so far.
+    **/
+    List getDiagnostics()
+    {
+	return diagnostics;
+    }
+
+    /**
+     * Called with each diagnostic when it is complete.
+    **/
+    protected void report(ProxyDiagnostic diagnostic)
+    {
+    }
+
+    /**
+     * Called with each line that is not part of a diagnostic.
+    **/
+    protected void other(String line)
+    {
+    }
+
+    // ================================
+    // Writer Methods
+    // ================================
+
+    public void write(char[] buf, int off, int len) throws IOException
+    {
+	if (out != null)
+	    out.write(buf, off, len);
+	for (int i = off; i < off + len; i++) {
+	    char c = buf[i];
+	    if (c == '\n') {
+		line(partial.toString());
+		partial.setLength(0);
+	    } else if (c != '\r') {
+		partial.append(c);
+	    }
+	}
+    }
+
+    public void flush() throws IOException
+    {
+	if (out != null)
+	    out.flush();
+    }
+
+    public void close() throws IOException
+    {
+	if (partial.length() > 0) {
+	    line(partial.toString());
+	    partial.setLength(0);
+	}
+	end();
+	if (out != null)
+	    out.close();
+    }
+
+    // ================================
+    // Parsing
+    // ================================
+
+    /**
+     * Takes one line of javac output, without its line terminator.
+    **/
+    void line(String s)
+    {
+	Matcher m = HEADER.matcher(s);
+	if (m.matches()) {
+	    end();
+	    String kind = m.group(3);
+	    this.kind = kind.equals("error") ? ProxyDiagnostic.KIND_ERROR
+		: kind.equals("warning") ? ProxyDiagnostic.KIND_WARNING
+		: ProxyDiagnostic.KIND_NOTE;
+	    source = m.group(1);
+	    line = m.group(2) != null ? Long.parseLong(m.group(2)) : ProxyDiagnostic.NOPOS;
+	    column = ProxyDiagnostic.NOPOS;
+	    String message = m.group(4);
+	    Matcher lint = LINT.matcher(message);
+	    code = lint.lookingAt() ? lint.group(1) : null;
+	    lines.add(message);
+	    return;
+	}
+
+	if (SUMMARY.matcher(s).matches()) {
+	    end();
+	    other(s);
+	} else if (lines.isEmpty()) {
+	    other(s);
+	} else if (s.trim().equals("^") && lines.size() > 1) {
+	    // The line before the caret is the source excerpt.
+	    column = s.indexOf('^') + 1;
+	    lines.remove(lines.size() - 1);
+	} else {
+	    lines.add(s);
+	}
+    }
+
+    /**
+     * Completes the diagnostic being read, if any.
+    **/
+    void end()
+    {
+	if (lines.isEmpty())
+	    return;
+
+	StringBuffer message = new StringBuffer((String)lines.get(0));
+	for (int i = 1; i < lines.size(); i++)
+	    message.append(ProxyEvent.NL).append(lines.get(i));
+	lines.clear();
+
+	ProxyDiagnostic d = new ProxyDiagnostic(kind, source, line, column, code, message.toString());
+	diagnostics.add(d);
+	report(d);
+    }
+
+    // ================================
+    // Class Fields
+    // ================================
+
+    // [source:line: ]kind: message
+    static final Pattern HEADER = Pattern.compile("(?:(\\S.*?):(\\d+): )?(error|warning|Note|note): (.*)");
+
+    // "1 error", "12 warnings"
+    static final Pattern SUMMARY = Pattern.compile("\\d+ (error|warning)s?");
+
+    // "[deprecation] ..."
+    static final Pattern LINT = Pattern.compile("\\[([\\w.-]+)\\]");
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    protected final Writer out;
+    protected final List diagnostics = new ArrayList();
+    protected final StringBuffer partial = new StringBuffer();
+
+    // The diagnostic being read.
+    protected final List lines = new ArrayList();
+    protected int kind;
+    protected String source;
+    protected long line;
+    protected long column;
+    protected String code;
+}
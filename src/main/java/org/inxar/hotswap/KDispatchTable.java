@@ -0,0 +1,186 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Per-interface dispatch table used by the
+ * <code>ProxyInvocationHandler</code>.  Every method of the proxied
+ * interfaces is resolved once to a <code>MethodHandle</code> having
+ * the generic type <code>(Object, Object[])Object</code>, and
+ * classified as either a proxy-control method (one of the
+ * <code>Proxy</code> signatures, dispatched to the <code>Proxy</code>
+ * itself) or a target method (dispatched to the current object
+ * instance).
+ *
+ * <P>
+ *
+ * The handles are resolved against the interface methods rather
+ * than the implementation class, so they remain valid across class
+ * swaps; the table only needs to be rebuilt when the set of
+ * interfaces changes.
+**/
+class KDispatchTable
+{
+    // ================================
+    // Constructors
+    // ================================
+
+    KDispatchTable(Class[] interfaces)
+    {
+	this.entries = new HashMap();
+
+	// The methods of Object that java.lang.reflect.Proxy routes
+	// through the invocation handler.
+	try {
+	    put(Object.class.getMethod("hashCode", new Class[0]));
+	    put(Object.class.getMethod("equals", new Class[]{ Object.class }));
+	    put(Object.class.getMethod("toString", new Class[0]));
+	} catch (NoSuchMethodException nsmex) {
+	    throw new InternalError(); // cannot happen
+	}
+
+	for (int i = 0; i < interfaces.length; i++) {
+	    Method[] methods = interfaces[i].getMethods();
+	    for (int j = 0; j < methods.length; j++)
+		put(methods[j]);
+	}
+    }
+
+    // ================================
+    // Package Methods
+    // ================================
+
+    /**
+     * Dispatches the given method either to the <code>Proxy</code>
+     * or to its current object instance.  Exceptions thrown by the
+     * target are propagated as-is.
+    **/
+    Object invoke(Proxy proxy, Method method, Object[] args) throws Throwable
+    {
+	Entry e = (Entry)entries.get(method);
+	if (e == null)
+	    e = newEntry(method);
+
+	if (e.isControl)
+	    return (Object)e.handle.invokeExact((Object)proxy, args);
+
+	KProxy p = KProxy.of(proxy);
+	if (p == null || !p.cls.isDraining())
+	    return (Object)e.handle.invokeExact(proxy.hotswap_getInstance(), args);
+
+	KProxy.Epoch epoch = p.hotswap_enter();
+	try {
+	    return (Object)e.handle.invokeExact(epoch.obj, args);
+	} finally {
+	    epoch.exit();
+	}
+    }
+
+    /**
+     * Returns <code>true</code> if the given method is dispatched to
+     * the <code>Proxy</code> rather than to the object instance.
+    **/
+    boolean isControl(Method method)
+    {
+	Entry e = (Entry)entries.get(method);
+	return e != null ? e.isControl : isControlSignature(method);
+    }
+
+    // ================================
+    // Protected Methods
+    // ================================
+
+    protected void put(Method method)
+    {
+	if (!entries.containsKey(method))
+	    entries.put(method, newEntry(method));
+    }
+
+    protected Entry newEntry(Method method)
+    {
+	Class[] params = method.getParameterTypes();
+
+	try {
+
+	    // Non-public interfaces are legal proxy interfaces.
+	    method.setAccessible(true);
+
+	    MethodHandle mh = LOOKUP.unreflect(method)
+		.asType(MethodType.genericMethodType(params.length + 1))
+		.asSpreader(Object[].class, params.length);
+
+	    return new Entry(isControlSignature(method), mh);
+
+	} catch (Exception ex) {
+	    throw new ProxyException("Unable to resolve "+method, ex);
+	}
+    }
+
+    /**
+     * Returns <code>true</code> if the signature of the given method
+     * is declared by the <code>Proxy</code> interface.
+    **/
+    protected static boolean isControlSignature(Method method)
+    {
+	if (method.getDeclaringClass() == Proxy.class)
+	    return true;
+
+	try {
+	    Proxy.class.getMethod(method.getName(), method.getParameterTypes());
+	    return true;
+	} catch (NoSuchMethodException nsmex) {
+	    return false;
+	}
+    }
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    // Table of Entry objects keyed by Method; never modified after
+    // construction.
+    protected final Map entries;
+
+    protected static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // ================================
+    // Inner Classes
+    // ================================
+
+    static final class Entry
+    {
+	Entry(boolean isControl, MethodHandle handle)
+	{
+	    this.isControl = isControl;
+	    this.handle = handle;
+	}
+
+	final boolean isControl;
+	final MethodHandle handle;
+    }
+}
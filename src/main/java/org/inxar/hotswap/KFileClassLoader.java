@@ -20,8 +20,9 @@
  */
 package org.inxar.hotswap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.IOException;
 import java.util.Set;
 import java.util.Map;
@@ -29,6 +30,8 @@ import java.util.TreeMap;
 
 /**
  * Concrete <code>ClassLoader</code> implementation that loads classes from files.
+ * Classfiles the compiler holds in memory (see
+ * <code>KMemoryResource</code>) are defined straight from their bytes.
 **/
 class KFileClassLoader extends ClassLoader
 {
@@ -76,13 +79,12 @@ class KFileClassLoader extends ClassLoader
     protected synchronized Class findClass(String className) throws ClassNotFoundException
     {
         System.out.println("[KFileClassLoader] findClass " + className);
-	FileInputStream in = null;
 
 	ProxyCompiler.Resource sourceFile = compiler.getSourceFile(className);
 	ProxyCompiler.Resource classFile = compiler.getClassFile(className);
 
         // Compile the class and see what happened.
-	int rc = compiler.compile(className, sourceFile, classFile);
+	int rc = compiler.compileLocked(className, sourceFile, classFile);
 
 	Class oldClass = null;
 
@@ -114,13 +116,15 @@ class KFileClassLoader extends ClassLoader
 			 ") AND missing sourcefile ("+sourceFile+')');
 		break;
 
-		/* if the compilation failed, we are expecting that
+		/* if the compilation failed or was abandoned, we are expecting that
 		   reloading the class would be a waste.  But this
 		   could be the case that (*) sourcefile exists but
 		   has bad syntax AND (2) classfile exists and is okay
 		   AND (3) this is the first time loading the class.
 		   So we'll let things continue. */
 	    case ProxyCompiler.RC_COMPILE_FAILURE:
+	    case ProxyCompiler.RC_COMPILE_TIMEOUT:
+	    case ProxyCompiler.RC_COMPILE_INTERRUPTED:
 		if (!classFile.exists())
 		    throw new ClassNotFoundException
 			("Missing classfile ("+classFile+
@@ -153,16 +157,15 @@ class KFileClassLoader extends ClassLoader
 	    // If we are here it means that we definitely want to try
 	    // and reload the class whether or not we already have it.
 	    // Do this now.
-	    long len = classFile.length();
-	    byte[] buf = new byte[(int)len];
-
-	    in = new FileInputStream(classFile.toString());
-	    in.read(buf);
-	    in.close();
-	    in = null;
+	    byte[] buf = classFile instanceof KMemoryResource
+		? ((KMemoryResource)classFile).getBytes()
+		: null;
+	    if (buf == null)
+		buf = read(classFile);
 
 	    Class newClass = defineClass(className, buf, 0, buf.length);
 	    resolveClass(newClass);
+	    compiler.setDependencies(className, buf);
 
             System.out.println("[KFileClassLoader] defined & resolved " + className);
 
@@ -181,11 +184,27 @@ class KFileClassLoader extends ClassLoader
 	    throw new ClassNotFoundException
 		("Unable to load class "+className+": "+ex.getMessage());
 
+	}
+    }
+
+    /**
+     * Reads the resource through to the end of its stream; the
+     * length is only taken as a hint, since the file may be
+     * rewritten under us.
+    **/
+    protected static byte[] read(ProxyCompiler.Resource r) throws IOException
+    {
+	ByteArrayOutputStream out = new ByteArrayOutputStream((int)Math.max(r.length(), 0));
+	InputStream in = r.getInputStream();
+	try {
+	    byte[] buf = new byte[8192];
+	    int n;
+	    while ((n = in.read(buf)) != -1)
+		out.write(buf, 0, n);
 	} finally {
-	    if (in != null)
-		try { in.close(); in = null; }
-		catch (Exception ex) {}
+	    in.close();
 	}
+	return out.toByteArray();
     }
 
     // ================================
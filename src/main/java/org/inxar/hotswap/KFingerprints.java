@@ -0,0 +1,205 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a content hash per sourcefile, so that a sourcefile whose
+ * time of last modification changed but whose bytes did not (after a
+ * <code>touch</code>, a checkout, or an editor saving an unmodified
+ * buffer) is not taken for a change, and a change that a coarse time
+ * of last modification hides is not missed.  Resources are keyed by
+ * their <code>toString()</code>.
+**/
+class KFingerprints
+{
+    // ================================
+    // Package Methods
+    // ================================
+
+    /**
+     * Returns the content hash of the given resource.  The bytes are
+     * read again only if the size or the time of last modification
+     * has changed since they were last read, or if they were last
+     * read so soon after they were modified that a later write could
+     * have kept the same time of last modification.  In that case
+     * they are read once more after the window for such a write has
+     * closed, not on every call meanwhile; a caller that knows the
+     * resource was written calls <code>forget()</code> first.
+    **/
+    long hash(ProxyCompiler.Resource r) throws IOException
+    {
+	long lastModified = r.lastModified();
+	long length = r.length();
+	String key = r.toString();
+	long now = System.currentTimeMillis();
+
+	Fingerprint fp = (Fingerprint)fingerprints.get(key);
+	if (fp != null
+	    && fp.lastModified == lastModified
+	    && fp.length == length
+	    && (fp.checked - lastModified > RACY_MILLIS || now - lastModified <= RACY_MILLIS))
+	    return fp.hash;
+
+	long checked = now;
+	InputStream in = r.getInputStream();
+	long hash;
+	try {
+	    hash = hash(in);
+	} finally {
+	    in.close();
+	}
+
+	fingerprints.put(key, new Fingerprint(lastModified, length, checked, hash));
+	return hash;
+    }
+
+    /**
+     * Returns the content hash of the given resource, or
+     * <code>null</code> if it cannot be read.
+    **/
+    Long hashOrNull(ProxyCompiler.Resource r)
+    {
+	try {
+	    return r.exists() ? Long.valueOf(hash(r)) : null;
+	} catch (IOException ioex) {
+	    return null;
+	}
+    }
+
+    /**
+     * Forgets the hash of the given resource, so that the next call
+     * to <code>hash()</code> reads its bytes whatever its time of
+     * last modification says.
+    **/
+    void forget(ProxyCompiler.Resource r)
+    {
+	fingerprints.remove(r.toString());
+    }
+
+    /**
+     * Records that the classfile of the given sourcefile is now
+     * compiled from content having the given hash.
+    **/
+    void compiled(ProxyCompiler.Resource sourceFile, long hash)
+    {
+	compiled.put(sourceFile.toString(), Long.valueOf(hash));
+    }
+
+    /**
+     * Returns the hash recorded by <code>compiled()</code> for the
+     * given sourcefile, or <code>null</code> if none has been.
+    **/
+    Long getCompiled(ProxyCompiler.Resource sourceFile)
+    {
+	return (Long)compiled.get(sourceFile.toString());
+    }
+
+    /**
+     * Records that the given sourcefile failed to compile with
+     * content having the given hash.
+    **/
+    void failed(ProxyCompiler.Resource sourceFile, long hash)
+    {
+	failed.put(sourceFile.toString(), Long.valueOf(hash));
+    }
+
+    /**
+     * Returns <code>true</code> if the given sourcefile failed to
+     * compile with content having the given hash, and nothing has
+     * compiled since that might have changed the outcome.
+    **/
+    boolean hasFailed(ProxyCompiler.Resource sourceFile, long hash)
+    {
+	Long h = (Long)failed.get(sourceFile.toString());
+	return h != null && h.longValue() == hash;
+    }
+
+    /**
+     * Forgets all failures recorded by <code>failed()</code>.  Called
+     * when something compiles, since a sourcefile may have failed
+     * only for want of what was just compiled.
+    **/
+    void forgetFailures()
+    {
+	failed.clear();
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of the bytes of the given
+     * stream.
+    **/
+    static long hash(InputStream in) throws IOException
+    {
+	long hash = FNV_OFFSET;
+	byte[] buf = new byte[8192];
+	int n;
+	while ((n = in.read(buf)) != -1) {
+	    for (int i = 0; i < n; i++) {
+		hash ^= buf[i] & 0xff;
+		hash *= FNV_PRIME;
+	    }
+	}
+	return hash;
+    }
+
+    // ================================
+    // Inner Classes
+    // ================================
+
+    static final class Fingerprint
+    {
+	Fingerprint(long lastModified, long length, long checked, long hash)
+	{
+	    this.lastModified = lastModified;
+	    this.length = length;
+	    this.checked = checked;
+	    this.hash = hash;
+	}
+
+	final long lastModified;
+	final long length;
+	final long checked;	// when the bytes were read
+	final long hash;
+    }
+
+    // ================================
+    // Class Fields
+    // ================================
+
+    // Covers the 2 second resolution of the coarsest filesystems.
+    static final long RACY_MILLIS = 2000L;
+
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    static final long FNV_PRIME = 0x100000001b3L;
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    protected final Map fingerprints = new ConcurrentHashMap(); // Fingerprints keyed by resource
+    protected final Map compiled = new ConcurrentHashMap(); // Long hashes the classfiles were compiled from
+    protected final Map failed = new ConcurrentHashMap(); // Long hashes that did not compile
+}
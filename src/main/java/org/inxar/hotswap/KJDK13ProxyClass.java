@@ -84,7 +84,7 @@ class KJDK13ProxyClass extends ProxyClass
 
     public Proxy newInstance()
     {
-        if (dirty)
+        if (isStale())
             hotswap();
 
 	//return newJDK13Proxy(new KProxy(this, isAutoEnqueue), null);
@@ -93,14 +93,14 @@ class KJDK13ProxyClass extends ProxyClass
 
     public Proxy newInstance(Object[] args)
     {
-        if (dirty)
+        if (isStale())
             hotswap();
 	return newJDK13Proxy(new KProxy(this, isAutoEnqueue, args), null);
     }
 
     public Proxy newInstance(Class[] params, Object[] args)
     {
-        if (dirty)
+        if (isStale())
             hotswap();
 	return newJDK13Proxy(new KProxy(this, isAutoEnqueue, params, args), null);
     }
@@ -111,7 +111,7 @@ class KJDK13ProxyClass extends ProxyClass
 	    throw new NullPointerException
 		("A non-null ProxyInvocationHandler argument is required.");
 
-        if (dirty)
+        if (isStale())
             hotswap();
 	return newJDK13Proxy(new KProxy(this, isAutoEnqueue), h);
     }
@@ -122,7 +122,7 @@ class KJDK13ProxyClass extends ProxyClass
 	    throw new NullPointerException
 		("A non-null ProxyInvocationHandler argument is required.");
 
-        if (dirty)
+        if (isStale())
             hotswap();
 
 	return newJDK13Proxy(new KProxy(this, isAutoEnqueue, args), h);
@@ -134,7 +134,7 @@ class KJDK13ProxyClass extends ProxyClass
 	    throw new NullPointerException
 		("A non-null ProxyInvocationHandler argument is required.");
 
-        if (dirty)
+        if (isStale())
             hotswap();
 
 	return newJDK13Proxy(new KProxy(this, isAutoEnqueue, params, args), h);
@@ -153,6 +153,10 @@ class KJDK13ProxyClass extends ProxyClass
 	    if (h == null)
 		h = dh.newInstance();
 
+	    // Make sure the dispatch table exists before the handler
+	    // picks it up.
+	    getDispatchTable();
+
 	    // Call ProxyInvocationHandler.setProxy(proxy).
 	    try {
 		setProxy.invoke(h, new Object[]{ proxy });
@@ -175,11 +179,23 @@ class KJDK13ProxyClass extends ProxyClass
 	}
     }
 
+    /**
+     * Returns the dispatch table for the interfaces of this
+     * <code>ProxyClass</code>, building it on first use.
+    **/
+    synchronized KDispatchTable getDispatchTable()
+    {
+	if (table == null)
+	    table = new KDispatchTable(interfaces);
+	return table;
+    }
+
     // ================================
     // Fields Methods
     // ================================
 
     protected Class[] interfaces;
+    protected KDispatchTable table;
 
     // ================================
     // Class Fields and Methods
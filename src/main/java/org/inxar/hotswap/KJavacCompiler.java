@@ -25,6 +25,15 @@ import java.lang.reflect.Constructor;
 import java.io.*;
 import java.util.StringTokenizer;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * Concrete <code>ProxyCompiler</code> implementation that interfaces
@@ -81,7 +90,7 @@ public class KJavacCompiler extends ProxyCompiler
     // ProxyCompiler Methods
     // ================================
 
-    synchronized int compile(String className,
+    int compile(final String className,
 			     ProxyCompiler.Resource sourceFile,
 			     ProxyCompiler.Resource classFile)
     {
@@ -117,16 +126,50 @@ public class KJavacCompiler extends ProxyCompiler
 	String out = "";
 	String err = "";
 
+	// A compile that may be abandoned writes to a directory of its
+	// own, so a retry never races it on the real classfiles.
+	long timeout = getCompileTimeout();
+	File root = null;
+	File staging = null;
+	if (timeout > 0) {
+	    root = getClassRoot(className, classFile);
+	    try {
+		staging = Files.createTempDirectory
+		    (root.getAbsoluteFile().getParentFile().toPath(), ".hotswap-javac").toFile();
+	    } catch (IOException ioex) {
+		fire(new ProxyCompileEvent(this, className, null, null,
+					   "Cannot stage the compile: " + ioex,
+					   RC_COMPILE_FAILURE, null));
+		return RC_COMPILE_FAILURE;
+	    }
+	}
+
 	// Prepare the command line.
-	String cmd = getCommand()
+	String cmd = getCommand(staging != null ? staging.getPath() : dst)
 	    .append(' ')
 	    .append(sourceFile.toString())
 	    .toString();
 	String[] argv = split(cmd, " ");
 
 	//ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // The output is read for diagnostics as javac writes it.
         StringWriter sout = new StringWriter();
-        PrintWriter pout = new PrintWriter(sout);
+        final boolean stream = hasOutputListeners();
+        // An abandoned compile's output is not streamed any further.
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        KDiagnosticParser parser = new KDiagnosticParser(sout) {
+                protected void report(ProxyDiagnostic d) {
+                    if (stream && !abandoned.get())
+                        fireOutput(new ProxyCompileOutputEvent
+                                   (KJavacCompiler.this, className, d));
+                }
+                protected void other(String line) {
+                    if (stream && !abandoned.get())
+                        fireOutput(new ProxyCompileOutputEvent
+                                   (KJavacCompiler.this, className, line, false));
+                }
+            };
+        PrintWriter pout = new PrintWriter(parser);
 
 	int rc = RC_COMPILE_UNKNOWN;
 
@@ -141,11 +184,23 @@ public class KJavacCompiler extends ProxyCompiler
 	    Object javac = ctor.newInstance();
 
 	    //wasSuccessful = new sun.tools.javac.Main(os, COMMAND_NAME).compile(argv);
-	    Integer resultCode = (Integer)compile.invoke(javac, new Object[]{argv, pout});
-            System.out.println("javac resultCode: " + resultCode);
-	    rc = resultCode.intValue();
-            wasSuccessful = rc == RC_COMPILE_SUCCESS;
+	    Integer resultCode = staging != null
+		? call(javac, argv, pout, timeout, staging, root)
+		: (Integer)compile.invoke(javac, new Object[]{argv, pout});
+	    if (resultCode == null) {
+		abandoned.set(true);
+		rc = RC_COMPILE_TIMEOUT;
+	    } else {
+		System.out.println("javac resultCode: " + resultCode);
+		rc = resultCode.intValue();
+		wasSuccessful = rc == RC_COMPILE_SUCCESS;
+	    }
 
+	} catch (InterruptedException iex) {
+	    // Abandoned like a compile that timed out.
+	    Thread.currentThread().interrupt();
+	    abandoned.set(true);
+	    rc = RC_COMPILE_INTERRUPTED;
 	} catch (Exception ioex) {
 	    ioex.printStackTrace();
 	    StringWriter sw = new StringWriter();
@@ -153,20 +208,39 @@ public class KJavacCompiler extends ProxyCompiler
 	    ioex.printStackTrace(pw);
 	    err += sw.toString();
 	    wasSuccessful = false;
+	    if (staging != null)
+		delete(staging);
 	}
 
-	if (!wasSuccessful)
-	    out = "Compilation did not complete successfully.";
-
-	//err = baos.toString();
+	// Writes of an abandoned compile fail quietly once this is
+	// closed.
+	pout.close();
 
-	if (hasListeners())
+	if (abandoned.get()) {
 	    fire(new ProxyCompileEvent(this,
 				       className,
 				       "javac " + cmd.toString(),
-				       sout.toString(),
 				       null,
-				       rc));
+				       rc == RC_COMPILE_TIMEOUT
+				       ? "Compile abandoned after " + timeout + " ms."
+				       : "Compile abandoned: thread interrupted.",
+				       rc,
+				       null));
+	    return rc;
+	}
+
+	if (!wasSuccessful)
+	    out = "Compilation did not complete successfully.";
+
+	//err = baos.toString();
+
+	fire(new ProxyCompileEvent(this,
+				   className,
+				   "javac " + cmd.toString(),
+				   sout.toString(),
+				   null,
+				   rc,
+				   parser.getDiagnostics()));
 
 	return rc;
     }
@@ -175,7 +249,131 @@ public class KJavacCompiler extends ProxyCompiler
     // Protected Methods
     // ================================
 
+    /**
+     * Runs javac, writing to the given staging directory, on another
+     * thread, and waits at most the given number of milliseconds for
+     * its return code.  If it compiled in time, its classfiles are
+     * moved from the staging directory to the same places under
+     * <code>root</code>.  Returns <code>null</code> if it is not done
+     * in time, and throws <code>InterruptedException</code> if this
+     * thread is interrupted meanwhile.  javac cannot be stopped, so
+     * an abandoned compile runs on to the end; the staging directory
+     * is deleted when it does.
+     **/
+    protected Integer call(final Object javac, final String[] argv, final PrintWriter pout,
+			   long timeout, final File staging, File root)
+	throws Exception
+    {
+	// Whichever of the compile and its abandonment comes second
+	// deletes the staging directory.
+	final AtomicBoolean stopped = new AtomicBoolean();
+
+	Future f = getTimedCompiles().submit(new Callable() {
+		public Object call() throws Exception {
+		    try {
+			// Abandoned before it started.
+			if (stopped.get())
+			    return null;
+			return compile.invoke(javac, new Object[]{argv, pout});
+		    } finally {
+			if (!stopped.compareAndSet(false, true))
+			    delete(staging);
+		    }
+		}
+	    });
+	InterruptedException interrupted = null;
+	try {
+	    Integer rc = (Integer)f.get(timeout, TimeUnit.MILLISECONDS);
+	    try {
+		if (rc.intValue() == RC_COMPILE_SUCCESS)
+		    publish(staging, root);
+	    } finally {
+		delete(staging);
+	    }
+	    return rc;
+	} catch (TimeoutException tex) {
+	    log("compile abandoned after " + timeout + " ms");
+	} catch (InterruptedException iex) {
+	    interrupted = iex;
+	} catch (ExecutionException ex) {
+	    delete(staging);
+	    Throwable cause = ex.getCause();
+	    if (cause instanceof Exception)
+		throw (Exception)cause;
+	    throw (Error)cause;
+	}
+	// Neither cancelled, which would leave the staging directory
+	// behind if the compile has not started, nor interrupted,
+	// which would crash javac and leave its arguments in a file
+	// in the working directory.
+	if (!stopped.compareAndSet(false, true))
+	    delete(staging);
+	if (interrupted != null)
+	    throw interrupted;
+	return null;
+    }
+
+    /**
+     * Returns the directory that javac writes the classfile of the
+     * given class under, in the directory of its package.
+     **/
+    protected File getClassRoot(String className, ProxyCompiler.Resource classFile)
+    {
+	File root = classFile.toFile().getAbsoluteFile().getParentFile();
+	for (int i = className.indexOf('.'); i >= 0; i = className.indexOf('.', i + 1))
+	    root = root.getParentFile();
+	return root;
+    }
+
+    /**
+     * Moves every file under <code>from</code> to the same place
+     * under <code>to</code>, replacing each file in one step where
+     * the filesystem allows, so a classloader never reads one half
+     * written.
+     **/
+    protected void publish(File from, File to) throws IOException
+    {
+	File[] files = from.listFiles();
+	if (files == null)
+	    return;
+	for (int i = 0; i < files.length; i++) {
+	    File target = new File(to, files[i].getName());
+	    if (files[i].isDirectory()) {
+		if (!target.isDirectory() && !target.mkdirs() && !target.isDirectory())
+		    throw new IOException("Cannot create " + target);
+		publish(files[i], target);
+		continue;
+	    }
+	    try {
+		Files.move(files[i].toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	    } catch (AtomicMoveNotSupportedException ex) {
+		Files.move(files[i].toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	    }
+	}
+    }
+
+    /**
+     * Deletes the given file, or directory and everything in it.
+     **/
+    protected static void delete(File file)
+    {
+	File[] files = file.listFiles();
+	if (files != null)
+	    for (int i = 0; i < files.length; i++)
+		delete(files[i]);
+	file.delete();
+    }
+
     protected StringBuffer getCommand()
+    {
+	return getCommand(dst);
+    }
+
+    /**
+     * Returns the command line options, compiling to the given
+     * destination.
+     **/
+    protected StringBuffer getCommand(String dst)
     {
 	StringBuffer cmd = new StringBuffer();
 
@@ -187,6 +385,10 @@ public class KJavacCompiler extends ProxyCompiler
 	    }
 	}
 
+	// Compiles of different classes run at the same time into the
+	// same destination, so each writes only its own classfiles.
+	cmd.append(" -implicit:none");
+
 	if (dst != null)
 	    cmd.append(" -d ").append(dst);
 
@@ -24,9 +24,26 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Constructor;
 
 import java.io.*;
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
 
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.StandardLocation;
 import javax.tools.DiagnosticListener;
 import javax.tools.DiagnosticCollector;
 import javax.tools.JavaFileManager;
@@ -40,7 +57,18 @@ import javax.tools.JavaFileObject.Kind;
 
 /**
  * Concrete <code>ProxyCompiler</code> implementation that uses the
- * JDK1.7 javax.tools.JavaCompiler object.
+ * JDK1.7 javax.tools.JavaCompiler object.  The compiler and its file
+ * manager are kept open between compiles (see
+ * <code>takeSession()</code>), so jars on the classpath are opened and
+ * indexed once rather than on every compile.  Each compile worker
+ * takes a session of its own, so independent classes compile
+ * concurrently.
+ *
+ * <P>
+ *
+ * Compiled classfiles are kept in memory and defined from there;
+ * writing them to the destination path is optional (see
+ * <code>isPersistent(boolean)</code>).
  *
  * @see http://www.informit.com/articles/article.aspx?p=2027052&seqNum=2
  * @see http://docs.oracle.com/javase/7/docs/api/javax/tools/JavaCompiler.html
@@ -80,96 +108,234 @@ public class KJavaxCompiler extends ProxyCompiler
     // ================================
 
     // ================================
-    // ProxyCompiler Methods
+    // Public Methods
     // ================================
 
-    synchronized int compile(String className,
-			     ProxyCompiler.Resource sourceFile,
-			     ProxyCompiler.Resource classFile)
+    /**
+     * Returns <code>true</code> if compiled classfiles are also
+     * written to the destination path.
+     **/
+    public boolean isPersistent()
     {
-	// Check to see if recompilation is advised.
-	switch (filestat(sourceFile, classFile)) {
+	return isPersistent;
+    }
 
-	    /* if it cannot be determined, propogate this uncertainty */
-	case RC_FILESTAT_UNKNOWN:
-	    return RC_COMPILE_UNKNOWN;
+    /**
+     * Sets the <code>isPersistent</code> property.  Classes are
+     * always loaded from the in-memory classfiles; if set to
+     * <code>true</code> (the default), the classfiles are also
+     * written through to the destination path so that a later run
+     * can find them current.
+     **/
+    public void isPersistent(boolean isPersistent)
+    {
+	this.isPersistent = isPersistent;
+    }
 
-	    /* if the sourcefile does not exist, propogate this. */
-	case RC_FILESTAT_SOURCE_MISSING:
-	    return RC_COMPILE_SOURCE_MISSING;
+    /**
+     * Closes the idle javac sessions.  Sessions in use are closed when
+     * their compile is done; the next compile opens a new one.
+     **/
+    public void closeSessions()
+    {
+	Session session;
+	while ((session = sessions.poll()) != null)
+	    close(session);
+    }
 
-	    /* if the classfile is current there is no need run the
-               compilation; return trivial */
-	case RC_FILESTAT_CLASS_CURRENT:
-	    return RC_COMPILE_TRIVIAL;
+    // ================================
+    // Package Methods
+    // ================================
 
-	    /* if the classfile is expired then continue processing */
-	case RC_FILESTAT_CLASS_EXPIRED:
-	    break;
+    /**
+     * Records the bytes of a classfile written by the compiler.
+     **/
+    void define(String className, byte[] bytes, long lastModified)
+    {
+	((KMemoryResource)getClassFile(className)).setBytes(bytes, lastModified);
+    }
+
+    // ================================
+    // ProxyCompiler Methods
+    // ================================
+
+    int compile(String className,
+			     ProxyCompiler.Resource sourceFile,
+			     ProxyCompiler.Resource classFile)
+    {
+	return compile(new String[]{ className },
+		       new ProxyCompiler.Resource[]{ sourceFile },
+		       new ProxyCompiler.Resource[]{ classFile },
+		       false)[0];
+    }
 
-	default:
-	    throw new InternalError(); // bad coding
+    /**
+     * Compiles all expired sourcefiles among the given ones in a
+     * single <code>CompilationTask</code>.  Diagnostics are reported
+     * with the class whose sourcefile they refer to.  If
+     * <code>force</code> is <code>true</code>, current classfiles
+     * count as expired.
+     **/
+    int[] compile(String[] classNames,
+			       ProxyCompiler.Resource[] sourceFiles,
+			       ProxyCompiler.Resource[] classFiles,
+			       boolean force)
+    {
+	int n = classNames.length;
+	int[] rcs = new int[n];
+	List<Integer> expired = new ArrayList();
+
+	for (int i = 0; i < n; i++) {
+
+	    // Check to see if recompilation is advised.  A forced
+	    // compile takes a current classfile for an expired one.
+	    int stat = filestat(sourceFiles[i], classFiles[i]);
+	    if (force && stat == RC_FILESTAT_CLASS_CURRENT)
+		stat = RC_FILESTAT_CLASS_EXPIRED;
+
+	    switch (stat) {
+
+		/* if it cannot be determined, propogate this uncertainty */
+	    case RC_FILESTAT_UNKNOWN:
+		rcs[i] = RC_COMPILE_UNKNOWN;
+		break;
+
+		/* if the sourcefile does not exist, propogate this. */
+	    case RC_FILESTAT_SOURCE_MISSING:
+		rcs[i] = RC_COMPILE_SOURCE_MISSING;
+		break;
+
+		/* if the classfile is current there is no need run the
+		   compilation; return trivial */
+	    case RC_FILESTAT_CLASS_CURRENT:
+		rcs[i] = RC_COMPILE_TRIVIAL;
+		break;
+
+		/* if the classfile is expired then continue processing */
+	    case RC_FILESTAT_CLASS_EXPIRED:
+		rcs[i] = RC_COMPILE_UNKNOWN;
+		expired.add(Integer.valueOf(i));
+		break;
+
+	    default:
+		throw new InternalError(); // bad coding
+	    }
 	}
 
+	if (expired.isEmpty())
+	    return rcs;
+
 	boolean wasSuccessful = false;
-	int rc = RC_COMPILE_UNKNOWN;
         String err = null;
-        String out = null;
+
+	// Per expired class: its compilation units, the bytes of its
+	// classfile before the compile, and its diagnostics.
+	final int m = expired.size();
+	final Map<URI,Integer> units = new HashMap();
+	byte[][] before = new byte[m][];
+	final List[] diagnostics = new List[m];
+	final boolean[] errors = new boolean[m];
+	final String[] expiredNames = new String[m];
+	final AtomicBoolean cancelled = new AtomicBoolean();
+	boolean timedOut = false;
+	boolean interrupted = false;
+	Session session = null;
 
 	try {
 
-            // Get compiler instance
-            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            // Get the compiler, file manager and options
+            session = takeSession();
+
+            // arg5: compilation units.  Classfiles written by this
+            // compile are as new as their sourcefile is now; a
+            // change made while compiling will still look newer.
+            List<JavaFileObject> files = new ArrayList();
+            Map<URI,Long> stamps = new HashMap();
+            for (int j = 0; j < m; j++) {
+                int i = expired.get(j).intValue();
+                long stamp = sourceFiles[i].lastModified();
+                for (JavaFileObject unit : getCompilationUnits(session.fileManager, sourceFiles[i])) {
+                    files.add(unit);
+                    units.put(unit.toUri(), Integer.valueOf(j));
+                    stamps.put(unit.toUri(), Long.valueOf(stamp));
+                }
+                if (classFiles[i] instanceof KMemoryResource)
+                    before[j] = ((KMemoryResource)classFiles[i]).getBytes();
+                diagnostics[j] = new ArrayList();
+                expiredNames[j] = classNames[i];
+            }
+            session.files.begin(stamps, isPersistent, cancelled);
 
             // arg0: Writer.  Using null means use System.err; Most
             // stuff goes to diagnostics, this catches everything
             // else.
             Writer errWriter = new StringWriter();
 
-            // arg2: diagnostics, but arg1 is dependent upon it.  Null
-            DiagnosticCollector diagnostics = getCompilationDiagnostics();
-
-            // arg1: fileManager. Optional locale and charset.
-            StandardJavaFileManager fileManager = compiler
-                .getStandardFileManager(diagnostics, null, null);
-
-            // arg3: options
-            List<String> options = getCompilationOptions();
+            // arg2: diagnostics, sorted by sourcefile as javac
+            // reports them; those without one go to everybody.
+            final boolean stream = hasOutputListeners();
+            DiagnosticListener listener = new DiagnosticListener() {
+                    public void report(Diagnostic diagnostic) {
+                        if (cancelled.get())
+                            throw new CancellationException();
+                        Object source = diagnostic.getSource();
+                        Integer j = source instanceof JavaFileObject
+                            ? units.get(((JavaFileObject)source).toUri())
+                            : null;
+                        ProxyDiagnostic d = new JavaxDiagnostic(diagnostic);
+                        for (int k = 0; k < m; k++) {
+                            if (j == null || j.intValue() == k) {
+                                diagnostics[k].add(d);
+                                errors[k] |= d.isError() && j != null;
+                                if (stream)
+                                    fireOutput(new ProxyCompileOutputEvent
+                                               (KJavaxCompiler.this, expiredNames[k], d));
+                            }
+                        }
+                    }
+                };
+
+            // arg1: fileManager, shared by the session.
+            JavaFileManager fileManager = session.files;
+
+            // arg3: options left over once the file manager has
+            // taken its own.
+            List<String> options = session.options;
 
             // arg4: classes.  Not really clear what this is for.
             List<String> classes = getCompilationClasses();
 
-            // arg5: compilation units
-            Iterable <? extends JavaFileObject> units = getCompilationUnits(fileManager, sourceFile);
-
-            //log("[KJavaxCompiler] compiling " + units);
+            //log("[KJavaxCompiler] compiling " + files);
 
             // Create the compilation task
-            JavaCompiler.CompilationTask task = compiler.getTask(errWriter,
+            JavaCompiler.CompilationTask task = session.compiler.getTask(errWriter,
                                                                  fileManager,
-                                                                 diagnostics,
+                                                                 listener,
                                                                  options,
                                                                  classes,
-                                                                 units);
+                                                                 files);
 
             // can attach annotation processors to the task.
 
-            wasSuccessful = task.call().booleanValue();
-
-            rc = wasSuccessful
-                ? ProxyCompiler.RC_COMPILE_SUCCESS
-                : ProxyCompiler.RC_COMPILE_FAILURE;
+            long timeout = getCompileTimeout();
+            if (timeout > 0) {
+                Boolean result = call(task, timeout, cancelled, session);
+                timedOut = result == null;
+                wasSuccessful = !timedOut && result.booleanValue();
+            } else {
+                wasSuccessful = task.call().booleanValue();
+            }
 
-            //log("[KJavaxCompiler] success " + wasSuccessful + ": " + rc);
+            //log("[KJavaxCompiler] success " + wasSuccessful);
 
             err = errWriter.toString();
 
             //log("[KJavaxCompiler] err " + err);
 
-            out = formatDiagnostics(diagnostics);
-
-            //log("[KJavaxCompiler] out " + out);
-
+	} catch (InterruptedException iex) {
+	    // Abandoned like a compile that timed out.
+	    Thread.currentThread().interrupt();
+	    interrupted = true;
 	} catch (Exception ioex) {
 	    ioex.printStackTrace();
 	    StringWriter sw = new StringWriter();
@@ -179,17 +345,142 @@ public class KJavaxCompiler extends ProxyCompiler
 	    wasSuccessful = false;
 
             //log("[KJavaxCompiler] exception " + err);
+	} finally {
+	    // An abandoned compile closes its session when it stops.
+	    if (session != null && !timedOut && !interrupted)
+		releaseSession(session);
+	}
+
+	if (timedOut || interrupted) {
+	    err = timedOut
+		? "Compile abandoned after " + getCompileTimeout() + " ms."
+		: "Compile abandoned: thread interrupted.";
+	    for (int j = 0; j < m; j++) {
+		int i = expired.get(j).intValue();
+		rcs[i] = timedOut ? RC_COMPILE_TIMEOUT : RC_COMPILE_INTERRUPTED;
+		if (hasListeners())
+		    fire(new ProxyCompileEvent(this, classNames[i],
+					       "<compiler api invoked>",
+					       null, err, rcs[i], null));
+	    }
+	    return rcs;
 	}
 
 	if (!wasSuccessful && (err == null || err.toString().length() == 0))
 	    err = "Compilation did not complete successfully.";
 
-	if (hasListeners())
-	    fire(new ProxyCompileEvent(this, className,
+	boolean anyErrors = false;
+	for (int j = 0; j < m; j++)
+	    anyErrors |= errors[j];
+
+	List<Integer> retry = new ArrayList();
+	for (int j = 0; j < m; j++) {
+	    int i = expired.get(j).intValue();
+
+	    // A failed batch can still have compiled this class: it
+	    // had no errors of its own and its classfile was written.
+	    boolean compiled = wasSuccessful;
+	    if (!compiled && !errors[j] && classFiles[i] instanceof KMemoryResource) {
+		byte[] after = ((KMemoryResource)classFiles[i]).getBytes();
+		compiled = after != null && after != before[j];
+
+		// javac writes nothing when any unit has errors, so
+		// classes without errors of their own get another go
+		// without the others.
+		if (!compiled && anyErrors) {
+		    retry.add(Integer.valueOf(i));
+		    continue;
+		}
+	    }
+
+	    rcs[i] = compiled
+		? ProxyCompiler.RC_COMPILE_SUCCESS
+		: ProxyCompiler.RC_COMPILE_FAILURE;
+
+	    fire(new ProxyCompileEvent(this, classNames[i],
 				       "<compiler api invoked>", // TODO: some command
-				       out, err, rc));
+				       null, err, rcs[i], diagnostics[j]));
+	}
+
+	if (retry.size() > 0) {
+	    int r = retry.size();
+	    String[] names = new String[r];
+	    ProxyCompiler.Resource[] srcs = new ProxyCompiler.Resource[r];
+	    ProxyCompiler.Resource[] clss = new ProxyCompiler.Resource[r];
+	    for (int k = 0; k < r; k++) {
+		int i = retry.get(k).intValue();
+		names[k] = classNames[i];
+		srcs[k] = sourceFiles[i];
+		clss[k] = classFiles[i];
+	    }
+	    int[] again = compile(names, srcs, clss, force);
+	    for (int k = 0; k < r; k++)
+		rcs[retry.get(k).intValue()] = again[k];
+	}
+
+	return rcs;
+    }
 
-	return rc;
+    /**
+     * Runs the task on a thread of its own and waits at most the
+     * given number of milliseconds for it, returning its result or
+     * <code>null</code> if it ran out of time.  In that case the
+     * flag is set, which the file manager, the diagnostic listener
+     * and a task listener check, so that javac stops at the next of
+     * them it comes to, and the session is closed once it has.  If
+     * this thread is interrupted, the compile is abandoned the same
+     * way and <code>InterruptedException</code> is thrown.
+     **/
+    protected Boolean call(final JavaCompiler.CompilationTask task, long timeout,
+			   final AtomicBoolean cancelled, final Session session)
+	throws Exception
+    {
+	// Whichever of the compile and its abandonment comes second
+	// closes the session.
+	final AtomicBoolean stopped = new AtomicBoolean();
+
+	if (task instanceof JavacTask) {
+	    ((JavacTask)task).addTaskListener(new TaskListener() {
+		    public void started(TaskEvent e) {
+			if (cancelled.get())
+			    throw new CancellationException();
+		    }
+		    public void finished(TaskEvent e) {
+			started(e);
+		    }
+		});
+	}
+
+	Future<Boolean> f = getTimedCompiles().submit(new Callable<Boolean>() {
+		public Boolean call() {
+		    try {
+			return task.call();
+		    } finally {
+			if (!stopped.compareAndSet(false, true))
+			    close(session);
+		    }
+		}
+	    });
+	InterruptedException interrupted = null;
+	try {
+	    return f.get(timeout, TimeUnit.MILLISECONDS);
+	} catch (TimeoutException tex) {
+	    log("compile abandoned after " + timeout + " ms");
+	} catch (InterruptedException iex) {
+	    interrupted = iex;
+	} catch (ExecutionException ex) {
+	    Throwable cause = ex.getCause();
+	    if (cause instanceof Exception)
+		throw (Exception)cause;
+	    throw (Error)cause;
+	}
+	cancelled.set(true);
+	f.cancel(true);
+	if (!stopped.compareAndSet(false, true))
+	    close(session);
+	if (interrupted != null)
+	    throw interrupted;
+	return null;
     }
 
     public DiagnosticCollector<JavaFileObject> getCompilationDiagnostics() {
@@ -225,10 +516,17 @@ public class KJavaxCompiler extends ProxyCompiler
         List<String> options = new ArrayList();
         options.add("-cp");
         options.add(formatClasspath());
-        options.add("-sourcepath");
-        options.add(getSourcepath().toString());
+        Object sourcepath = getSourcepath();
+        if (sourcepath != null) {
+            options.add("-sourcepath");
+            options.add(sourcepath.toString());
+        }
         options.add("-d");
         options.add(getDestinationpath());
+        // Sources javac pulls in from the sourcepath belong to other
+        // classes, which are compiled (and stamped) on their own.
+        options.add("-implicit:none");
+        options.addAll(getOptions());
         return options;
     }
 
@@ -247,5 +545,295 @@ public class KJavaxCompiler extends ProxyCompiler
         return m.getJavaFileObjectsFromFiles(files);
     }
 
+    // ================================
+    // Protected Methods
+    // ================================
+
+    /**
+     * Returns a <code>KMemoryResource</code>, one per classname, so
+     * that classfiles captured by the compiler are seen by every
+     * holder of the resource.
+     **/
+    protected ProxyCompiler.Resource newClassFile(String className, File file)
+    {
+	ProxyCompiler.Resource r = (ProxyCompiler.Resource)classFiles.get(className);
+	if (r == null) {
+	    r = new KMemoryResource(file);
+	    ProxyCompiler.Resource other = (ProxyCompiler.Resource)classFiles.putIfAbsent(className, r);
+	    if (other != null)
+		r = other;
+	}
+	return r;
+    }
+
+    /**
+     * Takes a session, which opens the classpath, lists the roots of
+     * the classpath and sourcepath so their jars and directories are
+     * open and indexed, then compiles a trivial unit a few times,
+     * throwing the output away.  The session is then kept for the
+     * first real compile.
+     **/
+    protected void warm(long deadline) throws Exception
+    {
+	Session session = takeSession();
+	try {
+	    session.fileManager.list(StandardLocation.CLASS_PATH, "", EnumSet.of(Kind.CLASS), false);
+	    session.fileManager.list(StandardLocation.SOURCE_PATH, "", EnumSet.of(Kind.SOURCE), false);
+
+	    JavaFileManager discard = new ForwardingJavaFileManager(session.fileManager) {
+		    public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location,
+							       String className,
+							       Kind kind,
+							       FileObject sibling)
+		    {
+			return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+				public OutputStream openOutputStream() {
+				    return new ByteArrayOutputStream();
+				}
+			    };
+		    }
+		};
+
+	    List<JavaFileObject> units = Collections.<JavaFileObject>singletonList
+		(new SimpleJavaFileObject(URI.create("mem:///HotswapWarmup.java"), Kind.SOURCE) {
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			    return WARMUP_SOURCE;
+			}
+		    });
+
+	    for (int i = 0; i < WARMUP_ROUNDS && System.nanoTime() < deadline; i++)
+		session.compiler.getTask(new StringWriter(), discard, new DiagnosticCollector(),
+					 session.options, null, units).call();
+	} finally {
+	    releaseSession(session);
+	}
+    }
+
+    /**
+     * Returns the in-memory classfile of the given class.
+     **/
+    protected byte[] readClassfile(String className, ProxyCompiler.Resource classFile) throws IOException
+    {
+	KMemoryResource r = (KMemoryResource)classFiles.get(className);
+	return r != null ? r.getBytes() : null;
+    }
+
+    /**
+     * Defines the given classfiles in memory, writing them through to
+     * the destination path as well if <code>isPersistent()</code>.
+     **/
+    protected void writeClassfiles(Map classfiles, long lastModified) throws IOException
+    {
+	Iterator i = classfiles.entrySet().iterator();
+	while (i.hasNext()) {
+	    Map.Entry e = (Map.Entry)i.next();
+	    define((String)e.getKey(), (byte[])e.getValue(), lastModified);
+	}
+	if (isPersistent)
+	    super.writeClassfiles(classfiles, lastModified);
+    }
+
+    /**
+     * Takes an idle javac session for the current compilation
+     * options, opening a new one if there is none.  Idle sessions
+     * opened with options -- the classpath, the sourcepath, the
+     * destination and <code>getOptions()</code> -- that have since
+     * changed are closed on the way.  The session belongs to the
+     * caller until it is given back with
+     * <code>releaseSession()</code>.
+     **/
+    protected Session takeSession() throws IOException
+    {
+	List<String> options = getCompilationOptions();
+
+	Session session;
+	while ((session = sessions.poll()) != null) {
+	    if (session.key.equals(options))
+		return session;
+	    close(session);
+	}
+
+	JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+	if (compiler == null)
+	    throw new IllegalStateException("No system Java compiler is available.");
+
+	return new Session(compiler, options, this);
+    }
+
+    /**
+     * Gives back a session taken with <code>takeSession()</code>.  It
+     * is kept for the next compile unless the options have changed or
+     * there are already as many idle sessions as compile workers.
+     **/
+    protected void releaseSession(Session session)
+    {
+	if (sessions.size() < getCompileWorkers()
+	    && session.key.equals(getCompilationOptions()))
+	    sessions.push(session);
+	else
+	    close(session);
+    }
+
+    protected void close(Session session)
+    {
+	try {
+	    session.close();
+	} catch (IOException ioex) {
+	    ioex.printStackTrace();
+	}
+    }
+
+    // ================================
+    // Inner Classes
+    // ================================
+
+    /**
+     * A compiler together with a file manager whose locations have
+     * been set from a list of options, wrapped to capture classfiles
+     * in memory.  The options the file manager does not understand
+     * are kept for the compilation tasks.
+     **/
+    protected static class Session
+    {
+	Session(JavaCompiler compiler, List<String> key, KJavaxCompiler owner) throws IOException
+	{
+	    this.compiler = compiler;
+	    this.key = new ArrayList(key);
+	    this.fileManager = compiler.getStandardFileManager(null, null, null);
+	    this.files = new KMemoryFileManager(fileManager, owner);
+	    this.options = new ArrayList();
+
+	    Iterator<String> i = key.iterator();
+	    while (i.hasNext()) {
+		String option = i.next();
+		if (fileManager.handleOption(option, i))
+		    continue;
+
+		// Pass it on to the task together with its arguments.
+		options.add(option);
+		for (int n = compiler.isSupportedOption(option); n > 0 && i.hasNext(); n--)
+		    options.add(i.next());
+	    }
+	}
+
+	void close() throws IOException
+	{
+	    fileManager.close();
+	}
+
+	final JavaCompiler compiler;
+	final StandardJavaFileManager fileManager;
+	final KMemoryFileManager files;
+	final List<String> key;		// the options as given
+	final List<String> options;	// the options for each task
+    }
+
+    /**
+     * A <code>ProxyDiagnostic</code> that asks javac's diagnostic for
+     * its message and printed form only when they are wanted, so a
+     * cascade of errors nobody reads costs little.  It holds on to
+     * javac's diagnostic for as long as it is kept itself.
+     **/
+    protected class JavaxDiagnostic extends ProxyDiagnostic
+    {
+	JavaxDiagnostic(Diagnostic diagnostic)
+	{
+	    this.diagnostic = diagnostic;
+	    switch (diagnostic.getKind()) {
+	    case ERROR:
+		kind = KIND_ERROR;
+		break;
+	    case WARNING:
+		kind = KIND_WARNING;
+		break;
+	    case MANDATORY_WARNING:
+		kind = KIND_MANDATORY_WARNING;
+		break;
+	    case NOTE:
+		kind = KIND_NOTE;
+		break;
+	    default:
+		kind = KIND_OTHER;
+	    }
+	}
+
+	public String toString()
+	{
+	    if (text == null)
+		text = formatDiagnostic(diagnostic);
+	    return text;
+	}
+
+	public String getSource()
+	{
+	    Object source = diagnostic.getSource();
+	    return source instanceof FileObject
+		? ((FileObject)source).getName()
+		: null;
+	}
+
+	public long getLine()
+	{
+	    return diagnostic.getLineNumber();
+	}
+
+	public long getColumn()
+	{
+	    return diagnostic.getColumnNumber();
+	}
+
+	public String getCode()
+	{
+	    return diagnostic.getCode();
+	}
+
+	public String getMessage()
+	{
+	    if (message == null)
+		message = diagnostic.getMessage(null);
+	    return message;
+	}
+
+	/**
+	 * Returns javac's own diagnostic.
+	 **/
+	public Diagnostic getDiagnostic()
+	{
+	    return diagnostic;
+	}
+
+	protected final Diagnostic diagnostic;
+	protected String text;
+    }
+
+    // ================================
+    // Class Fields
+    // ================================
+
+    // Compiled by warm(); touches generics, an inner class, string
+    // concatenation and a lambda.
+    static final String WARMUP_SOURCE =
+	"public class HotswapWarmup implements java.io.Serializable {\n" +
+	"    java.util.List<String> list = new java.util.ArrayList<String>();\n" +
+	"    class Inner { int n = list.size(); }\n" +
+	"    String run(Object o) {\n" +
+	"        Runnable r = () -> list.add(String.valueOf(o));\n" +
+	"        r.run();\n" +
+	"        return \"n=\" + new Inner().n + list;\n" +
+	"    }\n" +
+	"}\n";
+
+    static final int WARMUP_ROUNDS = 8;
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    protected final Deque<Session> sessions = new ConcurrentLinkedDeque(); // idle sessions
+    protected volatile boolean isPersistent = true;
+
+    // KMemoryResource classfiles keyed by className.
+    protected final Map classFiles = new ConcurrentHashMap();
+
 
 }
@@ -0,0 +1,171 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * <code>JavaFileManager</code> used by <code>KJavaxCompiler</code>
+ * that captures the classfiles written by the compiler in memory;
+ * they are handed to the compiler with
+ * <code>KJavaxCompiler.define</code>, from where
+ * <code>KFileClassLoader</code> defines them without touching the
+ * filesystem.  If <code>isPersistent</code> is set, each classfile is
+ * also written through to the underlying file manager.
+**/
+class KMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager>
+{
+    // ================================
+    // Constructors
+    // ================================
+
+    KMemoryFileManager(StandardJavaFileManager fileManager, KJavaxCompiler compiler)
+    {
+	super(fileManager);
+	this.compiler = compiler;
+    }
+
+    // ================================
+    // JavaFileManager Methods
+    // ================================
+
+    public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location,
+					       String className,
+					       JavaFileObject.Kind kind,
+					       FileObject sibling)
+	throws IOException
+    {
+	if (location != StandardLocation.CLASS_OUTPUT || kind != JavaFileObject.Kind.CLASS)
+	    return super.getJavaFileForOutput(location, className, kind, sibling);
+
+	JavaFileObject file = isPersistent
+	    ? super.getJavaFileForOutput(location, className, kind, sibling)
+	    : null;
+
+	Long stamp = sibling != null
+	    ? (Long)stamps.get(sibling.toUri())
+	    : null;
+
+	return new ClassFile(className, file,
+			     stamp != null ? stamp.longValue() : lastModified,
+			     cancelled);
+    }
+
+    // ================================
+    // Package Methods
+    // ================================
+
+    /**
+     * Sets up the next compilation.  The stamps map the URI of each
+     * compilation unit to the time of last modification its
+     * classfiles are recorded with; classfiles that cannot be traced
+     * to a unit get the oldest of them.  Once the flag is set, the
+     * compile is abandoned and the classfiles it writes are dropped.
+    **/
+    void begin(Map stamps, boolean isPersistent, AtomicBoolean cancelled)
+    {
+	long min = Long.MAX_VALUE;
+	Iterator i = stamps.values().iterator();
+	while (i.hasNext())
+	    min = Math.min(min, ((Long)i.next()).longValue());
+
+	this.stamps = stamps;
+	this.lastModified = min;
+	this.isPersistent = isPersistent;
+	this.cancelled = cancelled;
+    }
+
+    // ================================
+    // Inner Classes
+    // ================================
+
+    /**
+     * Output classfile; the bytes are handed over when the compiler
+     * closes the stream.
+    **/
+    class ClassFile extends SimpleJavaFileObject
+    {
+	ClassFile(String className, JavaFileObject file, long lastModified, AtomicBoolean cancelled)
+	{
+	    super(file != null
+		  ? file.toUri()
+		  : URI.create("mem:///" + className.replace('.', '/') + ".class"),
+		  JavaFileObject.Kind.CLASS);
+	    this.className = className;
+	    this.file = file;
+	    this.lastModified = lastModified;
+	    this.cancelled = cancelled;
+	}
+
+	public OutputStream openOutputStream() throws IOException
+	{
+	    return new FilterOutputStream(new ByteArrayOutputStream()) {
+		    public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		    }
+		    public void close() throws IOException {
+			if (cancelled.get())
+			    return;
+			byte[] bytes = ((ByteArrayOutputStream)out).toByteArray();
+			compiler.define(className, bytes, lastModified);
+			if (file != null) {
+			    OutputStream o = file.openOutputStream();
+			    try {
+				o.write(bytes);
+			    } finally {
+				o.close();
+			    }
+			}
+		    }
+		};
+	}
+
+	final String className;
+	final JavaFileObject file;	// write-through target, if any
+	final long lastModified;
+	final AtomicBoolean cancelled; // of the compile that wrote it
+    }
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    protected final KJavaxCompiler compiler;
+    protected Map stamps;	// Long stamps keyed by unit URI
+    protected long lastModified;
+    protected boolean isPersistent;
+    protected AtomicBoolean cancelled; // see begin()
+}
@@ -0,0 +1,98 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * Concrete implementation of <code>ProxyCompiler.Resource</code> for
+ * a classfile whose bytes are held in memory.  Until bytes have been
+ * set, it falls back to the <code>File</code> it was constructed
+ * with, so classfiles persisted by an earlier run are still seen.
+ * The time of last modification of an in-memory classfile is the one
+ * given with its bytes, not a filesystem timestamp.
+**/
+class KMemoryResource implements ProxyCompiler.Resource
+{
+    KMemoryResource(File file)
+    {
+	this.file = file;
+    }
+
+    public String toString()
+    {
+	return file.getAbsolutePath();
+    }
+
+    public File toFile()
+    {
+	return file;
+    }
+
+    synchronized public long lastModified() throws IOException
+    {
+	return bytes != null ? lastModified : file.lastModified();
+    }
+
+    synchronized public long length() throws IOException
+    {
+	return bytes != null ? bytes.length : file.length();
+    }
+
+    synchronized public boolean exists() throws IOException
+    {
+	return bytes != null || file.exists();
+    }
+
+    synchronized public InputStream getInputStream() throws IOException
+    {
+	return bytes != null
+	    ? (InputStream)new ByteArrayInputStream(bytes)
+	    : (InputStream)new FileInputStream(file);
+    }
+
+    /**
+     * Returns the in-memory bytes, or <code>null</code> if there are
+     * none.  The array must not be modified.
+    **/
+    synchronized byte[] getBytes()
+    {
+	return bytes;
+    }
+
+    /**
+     * Sets the bytes of the classfile, compiled from a sourcefile
+     * whose time of last modification was <code>lastModified</code>.
+    **/
+    synchronized void setBytes(byte[] bytes, long lastModified)
+    {
+	this.bytes = bytes;
+	this.lastModified = lastModified;
+    }
+
+    protected File file;
+    protected byte[] bytes;
+    protected long lastModified;
+}
@@ -24,9 +24,15 @@ import java.util.List;
 import java.util.LinkedList;
 import java.util.Iterator;
 import java.lang.reflect.Constructor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Concrete <code>Proxy</code> implementation.
+ * Concrete <code>Proxy</code> implementation.  The current object
+ * instance is published through a volatile field: readers never
+ * lock, and writers (the hotswap transaction methods) synchronize
+ * only among themselves.
 **/
 class KProxy implements Proxy
 {
@@ -127,7 +133,7 @@ class KProxy implements Proxy
 			return false;
 	    } else if (_this.length != 0)
 		return false;
-	} else if (_that != null || _that.length != 0)
+	} else if (_that != null && _that.length != 0)
 	    return false;
 
 	return true;
@@ -149,27 +155,36 @@ class KProxy implements Proxy
 
 	// If the object is null, this is the first time the object
 	// has been constructed (or the arguments have been updated).
-	if (obj == null)
-	    obj = hotswap_newInstance();
+	hotswap_getInstance();
 
 	// Try to recompile.
 	hotswap_enqueue();
 	cls.hotswap();
 
+	// If we missed the last transaction, catch up now.
+	cls.migrate(this);
+
 	return hotswap_getInstance();
     }
 
-    synchronized public Object hotswap_getInstance()
+    public Object hotswap_getInstance()
     {
+	Object o = obj;
+
 	// If the object is null, this is the first time the object
 	// has been constructed (or the arguments have been updated).
-	if (obj == null)
-	    obj = hotswap_newInstance();
+	// Racing constructors are resolved by whoever publishes
+	// first.
+	if (o == null) {
+	    o = hotswap_newInstance();
+	    if (!OBJ.compareAndSet(this, null, o))
+		o = obj;
+	}
 
-	return obj;
+	return o;
     }
 
-    synchronized public Boolean hotswap_hasChanged()
+    public Boolean hotswap_hasChanged()
     {
 	return ((bits & CHANGED_MASK) != 0)
 	    ? Boolean.TRUE
@@ -190,12 +205,14 @@ class KProxy implements Proxy
     {
 	this.args = args;
 	this.obj = null;
+	this.epoch = null;
     }
 
     synchronized public void hotswap_setConstructorParameters(Class[] params)
     {
 	this.params = params;
 	this.obj = null;
+	this.epoch = null;
     }
 
     synchronized public void hotswap_addObjectSwapListener(ProxyEventListener l)
@@ -211,7 +228,7 @@ class KProxy implements Proxy
 	    listeners.remove(l);
     }
 
-    synchronized public boolean hotswap_isAutoEnqueue()
+    public boolean hotswap_isAutoEnqueue()
     {
 	return (bits & AUTO_MASK) != 0;
     }
@@ -221,19 +238,17 @@ class KProxy implements Proxy
 	this.bits |= AUTO_MASK;
     }
 
-    synchronized public void hotswap_enqueue()
+    public void hotswap_enqueue()
     {
-	if (!cls.isEnqueued(this))
-	    cls.enqueue(this);
+	cls.enqueue(this);
     }
 
-    synchronized public void hotswap_dequeue()
+    public void hotswap_dequeue()
     {
-	if (cls.isEnqueued(this))
-	    cls.dequeue(this);
+	cls.dequeue(this);
     }
 
-    synchronized public boolean hotswap_isEnqueued()
+    public boolean hotswap_isEnqueued()
     {
 	return cls.isEnqueued(this);
     }
@@ -252,6 +267,152 @@ class KProxy implements Proxy
     // Package Methods
     // ================================
 
+    /**
+     * Accessor used on the invocation path.  Applies the check
+     * policy of the parent <code>ProxyClass</code>, then returns the
+     * current instance as <code>hotswap_refresh()</code> does.
+    **/
+    Object hotswap_current()
+    {
+	// Counted as the call site counts; see ProxyClass.count().
+	if (cls.counting)
+	    cls.traffic.increment();
+
+	if (cls.getCheckPolicy() == ProxyClass.CHECK_MANUAL)
+	    return hotswap_getInstance();
+
+	cls.check();
+	return hotswap_refresh();
+    }
+
+    /**
+     * Steady-state accessor.  If the stamp of the parent
+     * <code>ProxyClass</code> has not moved since this proxy was last
+     * brought up to date, the cached instance is returned directly;
+     * otherwise the full <code>hotswap()</code> path is taken once.
+    **/
+    Object hotswap_refresh()
+    {
+	int stamp = cls.getStamp();
+	Object o = obj;
+
+	if (stamp == seen && o != null)
+	    return o;
+
+	// Unless in SWAP_SYNC mode, the compile belongs to the
+	// background swap; only catch up with whatever has committed.
+	if (cls.getSwapMode() != ProxyClass.SWAP_SYNC) {
+	    hotswap_getInstance();
+	    cls.migrate(this);
+	    o = hotswap_getInstance();
+	} else
+	    o = hotswap();
+
+	seen = stamp;
+	return o;
+    }
+
+    /**
+     * Variant of <code>hotswap_refresh()</code> used by the
+     * <code>ProxyClass</code> call site, which supplies the stamp as
+     * a bound constant instead of reading it.
+    **/
+    Object hotswap_refresh(int stamp)
+    {
+	Object o = obj;
+
+	if (stamp == seen && o != null)
+	    return o;
+
+	return hotswap_refresh();
+    }
+
+    /**
+     * Returns the <code>KProxy</code> behind the given
+     * <code>Proxy</code>, or <code>null</code> if it was not created
+     * by this library.
+    **/
+    static KProxy of(Proxy proxy)
+    {
+	if (proxy instanceof ProxyStub)
+	    return ((ProxyStub)proxy).proxy;
+	if (proxy instanceof KProxy)
+	    return (KProxy)proxy;
+	return null;
+    }
+
+    // The static methods below are the call site targets for the
+    // check policies; see ProxyClass.getCallSite().  Proxies not
+    // created by this library are asked for their instance directly.
+
+    /* CHECK_DIRTY */
+    static Object current(int stamp, Proxy proxy)
+    {
+	KProxy p = of(proxy);
+	return p != null
+	    ? p.hotswap_refresh(stamp)
+	    : proxy.hotswap_getInstance();
+    }
+
+    /* CHECK_ALWAYS, CHECK_INTERVAL, CHECK_COUNT */
+    static Object checked(int stamp, Proxy proxy)
+    {
+	KProxy p = of(proxy);
+	if (p == null)
+	    return proxy.hotswap_getInstance();
+
+	// If this very check flagged the class, the bound stamp is
+	// already stale.
+	return p.cls.check()
+	    ? p.hotswap_refresh()
+	    : p.hotswap_refresh(stamp);
+    }
+
+    /* CHECK_MANUAL */
+    static Object instance(Proxy proxy)
+    {
+	return proxy.hotswap_getInstance();
+    }
+
+    /* draining; folded after one of the above */
+    static Object enter(Object instance, Proxy proxy)
+    {
+	KProxy p = of(proxy);
+	return p != null
+	    ? p.hotswap_enter()
+	    : instance;
+    }
+
+    /**
+     * Enters the current generation of this proxy on behalf of a
+     * call; the call must run against the instance of the returned
+     * <code>Epoch</code> and then exit it.  Lock-free except when a
+     * generation has to be started.
+    **/
+    Epoch hotswap_enter()
+    {
+	for (;;) {
+	    Epoch e = epoch;
+	    if (e == null)
+		e = hotswap_newEpoch();
+
+	    e.enters.increment();
+	    if (e == epoch)
+		return e;
+
+	    // A commit retired the generation under us; back out and
+	    // enter the new one.
+	    e.exit();
+	}
+    }
+
+    synchronized Epoch hotswap_newEpoch()
+    {
+	if (epoch == null)
+	    epoch = new Epoch(hotswap_getInstance());
+	return epoch;
+    }
+
     synchronized boolean hotswap_prepare(Class newClass)
     {
 	try {
@@ -276,10 +437,20 @@ class KProxy implements Proxy
 	if (tmp instanceof ProxyObject)
 	    ((ProxyObject)tmp).hotswap_onCommit();
 
-	// Swap the old instance with the new.
+	// Swap the old instance with the new.  The write to obj is
+	// the single publication point seen by readers.
 	Object old = obj;
 	obj = tmp;
-	tmp = old;
+
+	// If calls have been entering the old instance, retire its
+	// generation; it is released once they have all exited.
+	Epoch e = epoch;
+	epoch = null;
+	if (e != null && e.obj == old) {
+	    tmp = null;
+	    e.retire();
+	} else
+	    tmp = old;
 
 	fire( new ProxyObjectSwapEvent(this, old, obj) );
 
@@ -302,7 +473,7 @@ class KProxy implements Proxy
     // Protected Methods
     // ================================
 
-    synchronized protected Object hotswap_newInstance()
+    protected Object hotswap_newInstance()
     {
 	try {
 
@@ -325,6 +496,64 @@ class KProxy implements Proxy
 	}
     }
 
+    // ================================
+    // Inner Classes
+    // ================================
+
+    /**
+     * One generation of the object instance as seen by calls on a
+     * draining <code>ProxyClass</code> (see
+     * <code>ProxyClass.isDraining()</code>).  Entries and exits are
+     * counted on striped counters, so the call path never contends on
+     * a single word.  Once retired by a commit, the last call out
+     * releases the instance.
+    **/
+    static final class Epoch
+    {
+	Epoch(Object obj)
+	{
+	    this.obj = obj;
+	}
+
+	void exit()
+	{
+	    exits.increment();
+	    if (retired)
+		release();
+	}
+
+	void retire()
+	{
+	    retired = true;
+	    release();
+	}
+
+	/**
+	 * Releases the instance if no call is still running on it.
+	 * Both counters only grow, so summing the exits before the
+	 * entries can only underestimate exits against entries; an
+	 * equal pair means there really was a moment with nothing in
+	 * flight.  Calls racing the retirement each check again on
+	 * their way out.
+	**/
+	private void release()
+	{
+	    long out = exits.sum();
+	    long in = enters.sum();
+	    if (out != in || !released.compareAndSet(false, true))
+		return;
+
+	    if (obj instanceof ProxyObject)
+		((ProxyObject)obj).hotswap_onRelease();
+	}
+
+	final Object obj;
+	final LongAdder enters = new LongAdder();
+	final LongAdder exits = new LongAdder();
+	final AtomicBoolean released = new AtomicBoolean();
+	volatile boolean retired;
+    }
+
     // ================================
     // Other Methods
     // ================================
@@ -335,12 +564,23 @@ class KProxy implements Proxy
     protected Object[] args;
     protected ProxyClass cls;
     protected List listeners;
-    protected Object obj;
+    protected volatile Object obj;
     protected Object tmp;
     protected long timestamp;
 
+    // The ProxyClass stamp this proxy was last brought up to date
+    // with.  A stale read only costs an extra trip through hotswap().
+    protected int seen;
+
+    // The generation entered by draining calls; null until the first
+    // such call, and again after each commit.
+    protected volatile Epoch epoch;
+
     /* used as a bitset */
-    protected int bits;
+    protected volatile int bits;
+
+    protected static final AtomicReferenceFieldUpdater OBJ =
+	AtomicReferenceFieldUpdater.newUpdater(KProxy.class, Object.class, "obj");
 
     protected static final int CHANGED_MASK = 0x0000000F;
     protected static final int AUTO_MASK    = 0x000000F0;
@@ -0,0 +1,608 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Generates the bytecode of a <code>ProxyStub</code> subclass that
+ * implements a given set of public interfaces.  Every interface
+ * method body has the shape
+ *
+ * <pre>
+ *  Object token = &lt;current instance&gt;;
+ *  try {
+ *      return ((Iface)hotswap_unwrap(token)).method(arg0, arg1, ...);
+ *  } finally {
+ *      hotswap_exit(token);
+ *  }
+ * </pre>
+ *
+ * where the token comes from an <code>invokedynamic</code>
+ * instruction bootstrapped by
+ * <code>ProxyStub.hotswap_bootstrap</code>.  The arguments are
+ * loaded straight from their local variable slots, so primitives
+ * are never boxed and no argument array is allocated.
+ * The only branch target is the exception handler, described by a
+ * single full frame in the <code>StackMapTable</code>.
+**/
+class KProxyGenerator
+{
+    protected static final String STUB = "org/inxar/hotswap/ProxyStub";
+    protected static final String PROXY = "org/inxar/hotswap/Proxy";
+
+    // ================================
+    // Constructors
+    // ================================
+
+    KProxyGenerator(String className, Class[] interfaces)
+    {
+	this.className = className.replace('.', '/');
+	this.interfaces = interfaces;
+	this.pool = new ByteArrayOutputStream();
+	this.cp = new DataOutputStream(pool);
+	this.constants = new HashMap();
+	this.count = 1;
+    }
+
+    // ================================
+    // Package Methods
+    // ================================
+
+    /**
+     * Returns the classfile bytes.  The <code>Proxy</code>
+     * interface, if present in the interface list, is skipped since
+     * <code>ProxyStub</code> already implements it.
+    **/
+    byte[] generate()
+    {
+	try {
+
+	    List methods = collectMethods();
+
+	    this.bootstrap = methodHandle
+		(REF_invokeStatic, methodRef(STUB, "hotswap_bootstrap", BOOTSTRAP));
+
+	    ByteArrayOutputStream body = new ByteArrayOutputStream();
+	    DataOutputStream out = new DataOutputStream(body);
+
+	    // access_flags, this_class, super_class
+	    out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+	    out.writeShort(classRef(className));
+	    out.writeShort(classRef(STUB));
+
+	    // interfaces
+	    List names = new ArrayList();
+	    for (int i = 0; i < interfaces.length; i++)
+		if (interfaces[i] != Proxy.class)
+		    names.add(interfaces[i]);
+	    out.writeShort(names.size());
+	    for (int i = 0; i < names.size(); i++)
+		out.writeShort(classRef(internalName((Class)names.get(i))));
+
+	    // fields
+	    out.writeShort(0);
+
+	    // methods
+	    out.writeShort(methods.size() + 1);
+	    writeConstructor(out);
+	    for (int i = 0; i < methods.size(); i++)
+		writeMethod(out, (Method)methods.get(i));
+
+	    // attributes: BootstrapMethods
+	    out.writeShort(1);
+	    out.writeShort(utf8("BootstrapMethods"));
+	    out.writeInt(6);
+	    out.writeShort(1);
+	    out.writeShort(bootstrap);
+	    out.writeShort(0);
+	    out.flush();
+
+	    ByteArrayOutputStream file = new ByteArrayOutputStream();
+	    DataOutputStream f = new DataOutputStream(file);
+	    f.writeInt(0xCAFEBABE);
+	    f.writeShort(0);	// minor
+	    f.writeShort(52);	// major (1.8)
+	    f.writeShort(count);
+	    cp.flush();
+	    pool.writeTo(f);
+	    body.writeTo(f);
+	    f.flush();
+
+	    return file.toByteArray();
+
+	} catch (IOException ioex) {
+	    throw new ProxyException(ioex); // cannot happen
+	}
+    }
+
+    // ================================
+    // Protected Methods
+    // ================================
+
+    /**
+     * Collects the methods to implement, deduplicated by name and
+     * parameter types.  Signatures already implemented by
+     * <code>ProxyStub</code> are skipped.
+    **/
+    protected List collectMethods()
+    {
+	Map seen = new HashMap();
+	List methods = new ArrayList();
+
+	for (int i = 0; i < interfaces.length; i++) {
+	    Class iface = interfaces[i];
+	    if (iface == Proxy.class)
+		continue;
+
+	    if (!Modifier.isPublic(iface.getModifiers()))
+		throw new ProxyException
+		    (iface.getName()+" must be public to be used with a generated proxy.");
+
+	    Method[] ms = iface.getMethods();
+	    for (int j = 0; j < ms.length; j++) {
+		Method m = ms[j];
+		if (Modifier.isStatic(m.getModifiers()))
+		    continue;
+		if (isStubSignature(m))
+		    continue;
+
+		String key = m.getName() + parameterDescriptor(m.getParameterTypes());
+		Method other = (Method)seen.get(key);
+		if (other == null) {
+		    seen.put(key, m);
+		    methods.add(m);
+		} else if (other.getReturnType() != m.getReturnType()) {
+		    throw new ProxyException
+			("Incompatible return types for "+m+" and "+other);
+		}
+	    }
+	}
+
+	return methods;
+    }
+
+    protected void writeConstructor(DataOutputStream out) throws IOException
+    {
+	out.writeShort(ACC_PUBLIC);
+	out.writeShort(utf8("<init>"));
+	out.writeShort(utf8("(L" + PROXY + ";)V"));
+	out.writeShort(1);
+
+	// super(proxy);
+	ByteArrayOutputStream b = new ByteArrayOutputStream();
+	b.write(ALOAD_0);
+	b.write(ALOAD_1);
+	writeRef(b, INVOKESPECIAL, methodRef(STUB, "<init>", "(L" + PROXY + ";)V"));
+	b.write(RETURN);
+
+	writeCode(out, 2, 2, b.toByteArray());
+    }
+
+    protected void writeMethod(DataOutputStream out, Method m) throws IOException
+    {
+	Class iface = m.getDeclaringClass();
+	Class[] params = m.getParameterTypes();
+	Class ret = m.getReturnType();
+	String desc = methodDescriptor(m);
+
+	int slots = 0;
+	for (int i = 0; i < params.length; i++)
+	    slots += size(params[i]);
+
+	// The token lives in the first local after the arguments.
+	int token = 1 + slots;
+
+	ByteArrayOutputStream b = new ByteArrayOutputStream();
+
+	// Object token = <current instance>;
+	b.write(ALOAD_0);
+	writeRef(b, INVOKEDYNAMIC, invokeDynamic("current", CURRENT));
+	b.write(0);
+	b.write(0);
+	b.write(ASTORE);
+	b.write(token);
+
+	// try { ((Iface)hotswap_unwrap(token))
+	int start = b.size();
+	b.write(ALOAD);
+	b.write(token);
+	writeRef(b, INVOKESTATIC, methodRef(STUB, "hotswap_unwrap", UNWRAP));
+	writeRef(b, CHECKCAST, classRef(internalName(iface)));
+
+	// .method(arg0, arg1, ...)
+	int slot = 1;
+	for (int i = 0; i < params.length; i++) {
+	    b.write(loadOpcode(params[i]));
+	    b.write(slot);
+	    slot += size(params[i]);
+	}
+	writeRef(b, INVOKEINTERFACE, interfaceMethodRef(internalName(iface), m.getName(), desc));
+	b.write(1 + slots);
+	b.write(0);
+	int end = b.size();
+
+	// } finally { hotswap_exit(token); }, normal completion
+	b.write(ALOAD);
+	b.write(token);
+	writeRef(b, INVOKESTATIC, methodRef(STUB, "hotswap_exit", EXIT));
+	b.write(returnOpcode(ret));
+
+	// ... and abrupt completion
+	int handler = b.size();
+	b.write(ALOAD);
+	b.write(token);
+	writeRef(b, INVOKESTATIC, methodRef(STUB, "hotswap_exit", EXIT));
+	b.write(ATHROW);
+
+	// Frame at the handler: this, the arguments and the token in
+	// the locals; the throwable on the stack.
+	ByteArrayOutputStream frame = new ByteArrayOutputStream();
+	DataOutputStream f = new DataOutputStream(frame);
+	f.writeShort(1);		// number_of_entries
+	f.writeByte(FULL_FRAME);
+	f.writeShort(handler);		// offset_delta
+	f.writeShort(2 + params.length);
+	writeType(f, null);
+	for (int i = 0; i < params.length; i++)
+	    writeType(f, params[i]);
+	writeType(f, Object.class);
+	f.writeShort(1);
+	writeType(f, Throwable.class);
+	f.flush();
+
+	out.writeShort(ACC_PUBLIC | ACC_FINAL);
+	out.writeShort(utf8(m.getName()));
+	out.writeShort(utf8(desc));
+	out.writeShort(1);
+
+	int maxStack = Math.max(Math.max(1 + slots, size(ret) + 1), 2);
+	writeCode(out, maxStack, 2 + slots, b.toByteArray(),
+		  new int[]{ start, end, handler }, frame.toByteArray());
+    }
+
+    protected void writeCode(DataOutputStream out, int maxStack, int maxLocals, byte[] code)
+	throws IOException
+    {
+	writeCode(out, maxStack, maxLocals, code, new int[0], null);
+    }
+
+    /**
+     * Writes a <code>Code</code> attribute.  The handlers are given
+     * as (start, end, handler) triples, all catching any throwable;
+     * the stack map, if any, is the body of the
+     * <code>StackMapTable</code> attribute.
+    **/
+    protected void writeCode(DataOutputStream out, int maxStack, int maxLocals, byte[] code,
+			     int[] handlers, byte[] stackMap)
+	throws IOException
+    {
+	int entries = handlers.length / 3;
+	int attributes = stackMap != null ? 6 + stackMap.length : 0;
+
+	out.writeShort(utf8("Code"));
+	out.writeInt(12 + code.length + 8 * entries + attributes);
+	out.writeShort(maxStack);
+	out.writeShort(maxLocals);
+	out.writeInt(code.length);
+	out.write(code);
+
+	out.writeShort(entries);	// exception_table_length
+	for (int i = 0; i < handlers.length; i += 3) {
+	    out.writeShort(handlers[i]);
+	    out.writeShort(handlers[i + 1]);
+	    out.writeShort(handlers[i + 2]);
+	    out.writeShort(0);	// catch_type: any
+	}
+
+	if (stackMap == null) {
+	    out.writeShort(0);	// attributes_count
+	} else {
+	    out.writeShort(1);
+	    out.writeShort(utf8("StackMapTable"));
+	    out.writeInt(stackMap.length);
+	    out.write(stackMap);
+	}
+    }
+
+    /**
+     * Writes the <code>verification_type_info</code> of a local or
+     * stack slot holding the given type; <code>null</code> stands
+     * for the class being generated.
+    **/
+    protected void writeType(DataOutputStream f, Class c) throws IOException
+    {
+	if (c == null) {
+	    f.writeByte(ITEM_Object);
+	    f.writeShort(classRef(className));
+	} else if (!c.isPrimitive()) {
+	    f.writeByte(ITEM_Object);
+	    f.writeShort(classRef(internalName(c)));
+	} else if (c == Long.TYPE) {
+	    f.writeByte(ITEM_Long);
+	} else if (c == Float.TYPE) {
+	    f.writeByte(ITEM_Float);
+	} else if (c == Double.TYPE) {
+	    f.writeByte(ITEM_Double);
+	} else {
+	    f.writeByte(ITEM_Integer);
+	}
+    }
+
+    protected static void writeRef(ByteArrayOutputStream b, int opcode, int ref)
+    {
+	b.write(opcode);
+	b.write(ref >> 8);
+	b.write(ref);
+    }
+
+    // ================================
+    // Constant Pool
+    // ================================
+
+    protected int utf8(String s) throws IOException
+    {
+	Integer i = (Integer)constants.get("U" + s);
+	if (i != null)
+	    return i.intValue();
+	cp.writeByte(CONSTANT_Utf8);
+	cp.writeUTF(s);
+	return put("U" + s, 1);
+    }
+
+    protected int classRef(String internalName) throws IOException
+    {
+	Integer i = (Integer)constants.get("C" + internalName);
+	if (i != null)
+	    return i.intValue();
+	int name = utf8(internalName);
+	cp.writeByte(CONSTANT_Class);
+	cp.writeShort(name);
+	return put("C" + internalName, 1);
+    }
+
+    protected int nameAndType(String name, String desc) throws IOException
+    {
+	String key = "N" + name + ' ' + desc;
+	Integer i = (Integer)constants.get(key);
+	if (i != null)
+	    return i.intValue();
+	int n = utf8(name);
+	int d = utf8(desc);
+	cp.writeByte(CONSTANT_NameAndType);
+	cp.writeShort(n);
+	cp.writeShort(d);
+	return put(key, 1);
+    }
+
+    protected int methodRef(String owner, String name, String desc) throws IOException
+    {
+	return memberRef(CONSTANT_Methodref, owner, name, desc);
+    }
+
+    protected int interfaceMethodRef(String owner, String name, String desc) throws IOException
+    {
+	return memberRef(CONSTANT_InterfaceMethodref, owner, name, desc);
+    }
+
+    protected int memberRef(int tag, String owner, String name, String desc) throws IOException
+    {
+	String key = "M" + tag + owner + '.' + name + desc;
+	Integer i = (Integer)constants.get(key);
+	if (i != null)
+	    return i.intValue();
+	int c = classRef(owner);
+	int nt = nameAndType(name, desc);
+	cp.writeByte(tag);
+	cp.writeShort(c);
+	cp.writeShort(nt);
+	return put(key, 1);
+    }
+
+    protected int methodHandle(int kind, int ref) throws IOException
+    {
+	String key = "H" + kind + ':' + ref;
+	Integer i = (Integer)constants.get(key);
+	if (i != null)
+	    return i.intValue();
+	cp.writeByte(CONSTANT_MethodHandle);
+	cp.writeByte(kind);
+	cp.writeShort(ref);
+	return put(key, 1);
+    }
+
+    /**
+     * Returns an <code>InvokeDynamic</code> entry using the single
+     * bootstrap method of the class.
+    **/
+    protected int invokeDynamic(String name, String desc) throws IOException
+    {
+	String key = "D" + name + ' ' + desc;
+	Integer i = (Integer)constants.get(key);
+	if (i != null)
+	    return i.intValue();
+	int nt = nameAndType(name, desc);
+	cp.writeByte(CONSTANT_InvokeDynamic);
+	cp.writeShort(0);	// bootstrap_method_attr_index
+	cp.writeShort(nt);
+	return put(key, 1);
+    }
+
+    protected int put(String key, int slots)
+    {
+	int index = count;
+	constants.put(key, Integer.valueOf(index));
+	count += slots;
+	return index;
+    }
+
+    // ================================
+    // Descriptors
+    // ================================
+
+    static String internalName(Class c)
+    {
+	return c.getName().replace('.', '/');
+    }
+
+    static String descriptor(Class c)
+    {
+	if (c == Void.TYPE)	return "V";
+	if (c == Boolean.TYPE)	return "Z";
+	if (c == Byte.TYPE)	return "B";
+	if (c == Character.TYPE) return "C";
+	if (c == Short.TYPE)	return "S";
+	if (c == Integer.TYPE)	return "I";
+	if (c == Long.TYPE)	return "J";
+	if (c == Float.TYPE)	return "F";
+	if (c == Double.TYPE)	return "D";
+	if (c.isArray())	return internalName(c);
+	return "L" + internalName(c) + ";";
+    }
+
+    static String parameterDescriptor(Class[] params)
+    {
+	StringBuffer b = new StringBuffer("(");
+	for (int i = 0; i < params.length; i++)
+	    b.append(descriptor(params[i]));
+	return b.append(')').toString();
+    }
+
+    static String methodDescriptor(Method m)
+    {
+	return parameterDescriptor(m.getParameterTypes()) + descriptor(m.getReturnType());
+    }
+
+    static int size(Class c)
+    {
+	if (c == Void.TYPE)
+	    return 0;
+	if (c == Long.TYPE || c == Double.TYPE)
+	    return 2;
+	return 1;
+    }
+
+    static int loadOpcode(Class c)
+    {
+	if (!c.isPrimitive())	return ALOAD;
+	if (c == Long.TYPE)	return LLOAD;
+	if (c == Float.TYPE)	return FLOAD;
+	if (c == Double.TYPE)	return DLOAD;
+	return ILOAD;
+    }
+
+    static int returnOpcode(Class c)
+    {
+	if (c == Void.TYPE)	return RETURN;
+	if (!c.isPrimitive())	return ARETURN;
+	if (c == Long.TYPE)	return LRETURN;
+	if (c == Float.TYPE)	return FRETURN;
+	if (c == Double.TYPE)	return DRETURN;
+	return IRETURN;
+    }
+
+    /**
+     * Returns <code>true</code> if the given method has the signature
+     * of a method that <code>ProxyStub</code> implements itself.
+    **/
+    static boolean isStubSignature(Method m)
+    {
+	try {
+	    ProxyStub.class.getMethod(m.getName(), m.getParameterTypes());
+	    return true;
+	} catch (NoSuchMethodException nsmex) {
+	    return false;
+	}
+    }
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    protected final String className;
+    protected final Class[] interfaces;
+    protected final ByteArrayOutputStream pool;
+    protected final DataOutputStream cp;
+    protected final Map constants;	// constant pool index keyed by entry
+    protected int count;		// constant_pool_count
+    protected int bootstrap;		// MethodHandle of the bootstrap method
+
+    // ================================
+    // Class Fields
+    // ================================
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL  = 0x0010;
+    static final int ACC_SUPER  = 0x0020;
+
+    static final int CONSTANT_Utf8               = 1;
+    static final int CONSTANT_Class              = 7;
+    static final int CONSTANT_Methodref          = 10;
+    static final int CONSTANT_InterfaceMethodref = 11;
+    static final int CONSTANT_NameAndType        = 12;
+    static final int CONSTANT_MethodHandle       = 15;
+    static final int CONSTANT_InvokeDynamic      = 18;
+
+    static final int REF_invokeStatic = 6;
+
+    static final String BOOTSTRAP =
+	"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;" +
+	"Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
+    static final String CURRENT = "(L" + PROXY + ";)Ljava/lang/Object;";
+    static final String UNWRAP = "(Ljava/lang/Object;)Ljava/lang/Object;";
+    static final String EXIT = "(Ljava/lang/Object;)V";
+
+    static final int FULL_FRAME    = 255;
+    static final int ITEM_Integer  = 1;
+    static final int ITEM_Float    = 2;
+    static final int ITEM_Double   = 3;
+    static final int ITEM_Long     = 4;
+    static final int ITEM_Object   = 7;
+
+    static final int ILOAD   = 0x15;
+    static final int LLOAD   = 0x16;
+    static final int FLOAD   = 0x17;
+    static final int DLOAD   = 0x18;
+    static final int ALOAD   = 0x19;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ASTORE  = 0x3a;
+    static final int ATHROW  = 0xbf;
+    static final int IRETURN = 0xac;
+    static final int LRETURN = 0xad;
+    static final int FRETURN = 0xae;
+    static final int DRETURN = 0xaf;
+    static final int ARETURN = 0xb0;
+    static final int RETURN  = 0xb1;
+    static final int INVOKESPECIAL   = 0xb7;
+    static final int INVOKESTATIC    = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int INVOKEDYNAMIC   = 0xba;
+    static final int CHECKCAST       = 0xc0;
+}
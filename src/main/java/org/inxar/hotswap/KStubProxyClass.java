@@ -0,0 +1,140 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Concrete <code>ProxyClass</code> implementation that creates
+ * bytecode-generated proxies rather than
+ * <code>java.lang.reflect.Proxy</code> instances.  A single
+ * <code>ProxyStub</code> subclass implementing the interfaces is
+ * generated when the <code>ProxyClass</code> is constructed; every
+ * <code>Proxy</code> it hands out is an instance of that class.
+ *
+ * <P>
+ *
+ * Generated proxies allocate nothing per call: arguments travel in
+ * their local variable slots, primitives and primitive return values
+ * are never boxed, and the current instance is read through the
+ * <code>ProxyClass</code> call site.  Since an
+ * <code>InvocationHandler</code> needs boxed arguments by
+ * definition, the <code>newInstanceH</code> methods fall back to a
+ * dynamic proxy class.
+**/
+class KStubProxyClass extends KJDK13ProxyClass
+{
+    // ================================
+    // Constructors
+    // ================================
+
+    KStubProxyClass(ProxyCompiler compiler, Class cls)
+    {
+	this(compiler, cls, cls.getInterfaces());
+    }
+
+    KStubProxyClass(ProxyCompiler compiler, Class cls, Class[] interfaces)
+    {
+	super(compiler, cls, interfaces);
+
+	String name = "org.inxar.hotswap.$ProxyStub" + nextId();
+	byte[] b = new KProxyGenerator(name, this.interfaces).generate();
+
+	try {
+
+	    Class stub = new Loader(compiler.parent, this.interfaces, this).define(name, b);
+	    this.ctor = stub.getConstructor(new Class[]{ Proxy.class });
+
+	} catch (ProxyException pex) {
+	    throw pex;
+	} catch (Throwable t) {
+	    throw new ProxyException("Unable to define proxy stub for "+cls.getName(), t);
+	}
+    }
+
+    // ================================
+    // Other Methods
+    // ================================
+
+    protected Proxy newJDK13Proxy(Proxy proxy, Object h)
+    {
+	// An explicit handler asks for the dynamic proxy dispatch.
+	if (h != null)
+	    return super.newJDK13Proxy(proxy, h);
+
+	try {
+	    return (Proxy)ctor.newInstance(new Object[]{ proxy });
+	} catch (Exception ex) {
+	    throw new ProxyException(ex);
+	}
+    }
+
+    // ================================
+    // Fields
+    // ================================
+
+    protected Constructor ctor;
+
+    // ================================
+    // Class Fields and Methods
+    // ================================
+
+    private static int id;
+
+    private static synchronized int nextId()
+    {
+	return id++;
+    }
+
+    /**
+     * Child <code>ClassLoader</code> that defines a single generated
+     * stub class.  The interfaces must be visible through the parent,
+     * for the same reason <code>java.lang.reflect.Proxy</code>
+     * requires it.
+    **/
+    static class Loader extends ClassLoader
+    {
+	Loader(ClassLoader parent, Class[] interfaces, ProxyClass cls)
+	{
+	    super(parent);
+	    this.cls = cls;
+
+	    for (int i = 0; i < interfaces.length; i++) {
+		Class c = null;
+		try {
+		    c = Class.forName(interfaces[i].getName(), false, parent);
+		} catch (ClassNotFoundException cnfex) {
+		}
+		if (c != interfaces[i])
+		    throw new ProxyException
+			(interfaces[i].getName()+" is not visible from class loader "+parent);
+	    }
+	}
+
+	Class define(String name, byte[] b)
+	{
+	    return defineClass(name, b, 0, b.length);
+	}
+
+	// The ProxyClass whose call site the stub links to.
+	final ProxyClass cls;
+    }
+}
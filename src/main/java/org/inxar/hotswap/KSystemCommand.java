@@ -2,7 +2,7 @@
  * $Id$
  *
  * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
- * 
+ *
  * This program is free software; you can redistribute it and/or
  * modify it under the terms of the GNU General Public License as
  * published by the Free Software Foundation; either version 2 of the
@@ -20,11 +20,30 @@
  */
 package org.inxar.hotswap;
 
-import java.io.*;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Concrete implementation of <code>Runnable</code> that executes a
- * system command using asynchronous IO.  
+ * system command and gathers its standard output and standard error.
+ * Standard error is read by the thread that runs the command, and
+ * standard output by a thread from a pool shared by all commands, so
+ * that many commands at once cost a bounded number of threads.  Each
+ * stream is captured up to <code>getLimit()</code> characters and the
+ * rest is drained and counted; lines are handed to the
+ * <code>LineListener</code>, if any, as they arrive.
 **/
 class KSystemCommand implements Runnable
 {
@@ -33,7 +52,8 @@ class KSystemCommand implements Runnable
     }
 
     /**
-     * Constructs the instance to execute the given command string.
+     * Constructs the instance to execute the given command string,
+     * split into arguments at whitespace.
     **/
     KSystemCommand(String cmd)
     {
@@ -41,116 +61,276 @@ class KSystemCommand implements Runnable
     }
 
     /**
-     * Executes the command and gathers stderr and stdout
-     * asynchronously.
+     * Returns the number of characters of each stream captured in
+     * <code>out</code> and <code>err</code>.
     **/
-    public synchronized void run()
+    int getLimit()
     {
-	ASyncReader stdout = null;
-	ASyncReader stderr = null;
-	Thread t_stdout = null;
-	Thread t_stderr = null;
-
-        try {
-            
-            Process p = Runtime.getRuntime()
-		.exec(cmd);
-            
-	    stdout = 
-		new ASyncReader
-		    (new BufferedReader
-			(new InputStreamReader
-			    (p.getInputStream())));
-
-	    stderr = 
-		new ASyncReader
-		    (new BufferedReader
-			(new InputStreamReader
-			    (p.getErrorStream())));
-
-	    t_stdout = new Thread(stdout);
-	    t_stderr = new Thread(stderr);
-	    
-	    
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-
-	if (t_stdout != null) t_stdout.start();
-	if (t_stderr != null) t_stderr.start();
-
-	try { t_stdout.join(); } catch (InterruptedException iex) {}
-	try { t_stderr.join(); } catch (InterruptedException iex) {}
-	
-	if (stdout != null) out = stdout.getOutput();
-	if (stderr != null) err = stderr.getOutput();
+	return limit;
+    }
 
+    void setLimit(int limit)
+    {
+	this.limit = limit;
     }
 
     /**
-     * Public member that holds the contents of the standard output
-     * stream; this will NOT be defined until after the
-     * <code>run</code> method completes.
+     * Sets the number of milliseconds the command may run before it
+     * is killed; 0 means no limit.
     **/
-    public String out;
+    void setTimeout(long timeout)
+    {
+	this.timeout = timeout;
+    }
 
-    /**
-     * Public member that holds the contents of the standard error
-     * stream; this will NOT be defined until after the
-     * <code>run</code> method completes.
-    **/
-    public String err;
+    void setLineListener(LineListener listener)
+    {
+	this.listener = listener;
+    }
 
     /**
-     * Public member that holds the command string; this will be
-     * defined after the constructor returns.
+     * Executes the command and gathers stderr and stdout.
     **/
-    public String cmd; 
-}
+    public synchronized void run()
+    {
+	List argv = new ArrayList();
+	StringTokenizer st = new StringTokenizer(cmd);
+	while (st.hasMoreTokens())
+	    argv.add(st.nextToken());
 
-class ASyncReader implements Runnable
-{
-    private static final int BUF_SIZE = 256;
+	Capture stdout = new Capture(false);
+	Capture stderr = new Capture(true);
+
+	try {
+
+	    final Process p = new ProcessBuilder(argv).start();
+	    p.getOutputStream().close();
+
+	    // Killing the process ends its streams, and so the readers.
+	    Future kill = null;
+	    if (timeout > 0)
+		kill = KILLER.schedule(new Runnable() {
+			public void run() {
+			    timedOut = true;
+			    p.destroyForcibly();
+			}
+		    }, timeout, TimeUnit.MILLISECONDS);
+
+	    Future f = READERS.submit(stdout.reader(p.getInputStream()));
+	    stderr.reader(p.getErrorStream()).run();
+
+	    boolean interrupted = false;
+	    while (true) {
+		try {
+		    f.get();
+		    exitValue = p.waitFor();
+		    break;
+		} catch (InterruptedException iex) {
+		    interrupted = true;
+		} catch (ExecutionException ex) {
+		    ex.getCause().printStackTrace();
+		    break;
+		}
+	    }
+	    if (kill != null)
+		kill.cancel(false);
+	    if (interrupted)
+		Thread.currentThread().interrupt();
+
+	} catch (IOException ex) {
+	    ex.printStackTrace();
+	    stderr.append(ex.toString());
+	}
+
+	out = stdout.toString();
+	err = stderr.toString();
+    }
+
+    // ================================
+    // Inner Classes
+    // ================================
 
-    ASyncReader(BufferedReader in)
+    /**
+     * Receives the lines of a command's output as they are read.
+    **/
+    interface LineListener
     {
-	this.in = in;
+	void line(String line, boolean isErr);
     }
 
-    public synchronized void run()
+    /**
+     * Captures one stream up to the limit, and splits it into lines
+     * for the listener.  Lines are cut at <code>MAX_LINE</code>
+     * characters so a stream without line breaks cannot grow one
+     * without bound.
+    **/
+    class Capture
     {
-	int len;
-	char buf[] = new char[BUF_SIZE];
+	Capture(boolean isErr)
+	{
+	    this.isErr = isErr;
+	}
 
-	try {
+	Runnable reader(final InputStream in)
+	{
+	    return new Runnable() {
+		    public void run() {
+			try {
+			    Reader r = new InputStreamReader(in);
+			    try {
+				char[] buf = new char[BUF_SIZE];
+				int len;
+				while ((len = r.read(buf)) != -1)
+				    append(buf, len);
+			    } finally {
+				r.close();
+			    }
+			} catch (IOException ioex) {
+			    ioex.printStackTrace();
+			}
+			flush();
+		    }
+		};
+	}
+
+	void append(char[] buf, int len)
+	{
+	    int keep = Math.min(len, limit - captured.length());
+	    if (keep > 0)
+		captured.append(buf, 0, keep);
+	    dropped += len - Math.max(keep, 0);
 
-	    StringBuffer b = new StringBuffer();
-
-	    while( (len = in.read(buf)) != -1 ) 
-		b.append(buf, 0, len);
-	    
-	    out = b.toString();
-	    notify();
-
-	} catch(EOFException eofex) {
-	    eofex.printStackTrace();
-	} catch(IOException ioex) {
-	    ioex.printStackTrace();
-	} finally {
-	if (in != null) 
-	    try {
-		in.close();
-		in = null;
-	    } catch (Exception ex) {
+	    if (listener == null)
+		return;
+	    for (int i = 0; i < len; i++) {
+		char c = buf[i];
+		if (c == '\n') {
+		    flush();
+		} else if (c != '\r') {
+		    line.append(c);
+		    if (line.length() >= MAX_LINE)
+			flush();
+		}
 	    }
 	}
+
+	void append(String s)
+	{
+	    append(s.toCharArray(), s.length());
+	    flush();
+	}
+
+	void flush()
+	{
+	    if (listener != null && line.length() > 0)
+		listener.line(line.toString(), isErr);
+	    line.setLength(0);
+	}
+
+	public String toString()
+	{
+	    return dropped > 0
+		? captured + "[" + dropped + " more characters not kept]"
+		: captured.toString();
+	}
+
+	final boolean isErr;
+	final StringBuilder captured = new StringBuilder();
+	final StringBuilder line = new StringBuilder();
+	long dropped;
     }
 
-    public String getOutput()
-    {
-	return out;
+    // ================================
+    // Class Fields
+    // ================================
+
+    private static final int BUF_SIZE = 4096;
+
+    static final int MAX_LINE = 8192;
+
+    static final int DEFAULT_LIMIT = 64 * 1024;
+
+    /**
+     * Reads standard output for all commands.  A command whose reader
+     * has to wait for a thread blocks once its pipe is full, until an
+     * earlier command finishes.
+    **/
+    static final ThreadPoolExecutor READERS;
+
+    static {
+	int n = Math.max(2, Runtime.getRuntime().availableProcessors());
+	READERS = new ThreadPoolExecutor
+	    (n, n, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue(),
+	     new ThreadFactory() {
+		 public Thread newThread(Runnable r) {
+		     Thread t = new Thread(r, "hotswap-process-reader");
+		     t.setDaemon(true);
+		     return t;
+		 }
+	     });
+	READERS.allowCoreThreadTimeOut(true);
     }
 
-    String out;
-    BufferedReader in;
+    /**
+     * Kills commands that run out of time.
+    **/
+    static final ScheduledThreadPoolExecutor KILLER = new ScheduledThreadPoolExecutor
+	(1, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, "hotswap-process-killer");
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+
+    static {
+	KILLER.setRemoveOnCancelPolicy(true);
+    }
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    /**
+     * Public member that holds the contents of the standard output
+     * stream, up to the limit; this will NOT be defined until after
+     * the <code>run</code> method completes.
+    **/
+    public String out;
+
+    /**
+     * Public member that holds the contents of the standard error
+     * stream, up to the limit; this will NOT be defined until after
+     * the <code>run</code> method completes.
+    **/
+    public String err;
+
+    /**
+     * Public member that holds the command string; this will be
+     * defined after the constructor returns.
+    **/
+    public String cmd; 
+
+    /**
+     * Public member that holds the exit value of the process, or -1
+     * if it could not be run.
+    **/
+    public int exitValue = -1;
+
+    /**
+     * Public member that is <code>true</code> if the process was
+     * killed for running longer than the timeout.
+    **/
+    public volatile boolean timedOut;
+
+    /**
+     * Public member that holds the <code>ProxyDiagnostic</code>s
+     * found in the output, if the creator of the command looks for
+     * them.
+    **/
+    public List diagnostics;
+
+    protected int limit = DEFAULT_LIMIT;
+    protected long timeout;
+    protected LineListener listener;
 }
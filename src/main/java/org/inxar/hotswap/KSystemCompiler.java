@@ -27,12 +27,16 @@ import java.io.StringWriter;
 import java.io.PrintWriter;
 import java.io.File;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Iterator;
+import java.util.StringTokenizer;
 
 /**
  * Concrete <code>ProxyCompiler</code> implementation that runs a
- * system command.
+ * system command.  Every compile starts a new process; to keep
+ * compiles out of process without paying JVM startup each time, use
+ * <code>KDaemonCompiler</code>.
  *
  * <P>
  * <table border=0 cellpadding="0" cellspacing="0" bgcolor="#999999" width="100%">
@@ -107,7 +111,7 @@ public class KSystemCompiler extends ProxyCompiler
     // ProxyCompiler Methods
     // ================================
 
-    synchronized int compile(String className,
+    int compile(String className,
 			     ProxyCompiler.Resource sourceFile,
 			     ProxyCompiler.Resource classFile)
     {
@@ -143,27 +147,19 @@ public class KSystemCompiler extends ProxyCompiler
 	    .append(' ')
 	    .append(sourceFile.toString());
 
-	KSystemCommand c = null;
+	KSystemCommand c = newCommand(className, cmd.toString());
 
-	try {
-
-	    if (classFile.exists()) {
-
-		long lastMod = classFile.lastModified();
-
-		c = new KSystemCommand(cmd.toString());
-		c.run();
-
-		wasSuccessful = lastMod < classFile.lastModified();
+	File file = classFile.toFile();
+	long lastMod = file != null ? file.lastModified() : 0L;
 
-	    } else {
-
-		c = new KSystemCommand(cmd.toString());
-		c.run();
+	try {
 
-		wasSuccessful = classFile.exists();
+	    // The exit code decides.  The time of the classfile cannot:
+	    // another compile running at the same time may have written
+	    // it.
+	    c.run();
 
-	    }
+	    wasSuccessful = c.exitValue == 0 && classFile.exists();
 
             System.out.println("[KSystemCompiler] " + cmd.toString());
 	} catch (IOException ioex) {
@@ -176,20 +172,28 @@ public class KSystemCompiler extends ProxyCompiler
 
 	}
 
-	if (c != null) {
+	if (c.out != null)
 	    out += c.out;
+	if (c.err != null)
 	    err += c.err;
-	}
 
 	int rc = wasSuccessful ? RC_COMPILE_SUCCESS : RC_COMPILE_FAILURE;
 
-	if (hasListeners())
-	    fire(new ProxyCompileEvent(this,
-				       className,
-				       cmd.toString(),
-				       out,
-				       err,
-				       rc));
+	// A killed compiler may have left a classfile half written.
+	if (c.timedOut) {
+	    rc = RC_COMPILE_TIMEOUT;
+	    err += "Compiler killed after " + getCompileTimeout() + " ms.";
+	    if (file != null && file.lastModified() != lastMod)
+		file.delete();
+	}
+
+	fire(new ProxyCompileEvent(this,
+				   className,
+				   cmd.toString(),
+				   out,
+				   err,
+				   rc,
+				   c.diagnostics));
 	return rc;
     }
 
@@ -197,6 +201,84 @@ public class KSystemCompiler extends ProxyCompiler
     // Other Methods
     // ================================
 
+    /**
+     * Returns the number of characters of standard output and of
+     * standard error kept for the <code>ProxyCompileEvent</code> of
+     * each compile.  Output listeners see all of it regardless.
+     **/
+    synchronized public int getOutputLimit()
+    {
+	return outputLimit;
+    }
+
+    synchronized public void setOutputLimit(int outputLimit)
+    {
+	if (outputLimit < 0)
+	    throw new IllegalArgumentException("Negative output limit: " + outputLimit);
+	this.outputLimit = outputLimit;
+    }
+
+    /**
+     * Returns the command that compiles the given class.  Its
+     * standard error is read for javac diagnostics, which are kept
+     * for the <code>ProxyCompileEvent</code> and, like any other
+     * output, streamed to the output listeners if there are any.
+     **/
+    protected KSystemCommand newCommand(final String className, String cmd)
+    {
+	final boolean stream = hasOutputListeners();
+	final KDiagnosticParser parser = new KDiagnosticParser(null) {
+		protected void report(ProxyDiagnostic d) {
+		    if (stream)
+			fireOutput(new ProxyCompileOutputEvent
+				   (KSystemCompiler.this, className, d));
+		}
+		protected void other(String line) {
+		    if (stream)
+			fireOutput(new ProxyCompileOutputEvent
+				   (KSystemCompiler.this, className, line, true));
+		}
+	    };
+	KSystemCommand c = new KSystemCommand(cmd) {
+		public void run() {
+		    super.run();
+		    parser.end();
+		    diagnostics = parser.getDiagnostics();
+		}
+	    };
+	c.setLimit(getOutputLimit());
+	c.setTimeout(getCompileTimeout());
+	c.setLineListener(new KSystemCommand.LineListener() {
+		public void line(String line, boolean isErr) {
+		    if (isErr)
+			parser.line(line);
+		    else if (stream)
+			fireOutput(new ProxyCompileOutputEvent
+				   (KSystemCompiler.this, className, line, false));
+		}
+	    });
+	return c;
+    }
+
+    /**
+     * Adds the command and what it prints for <code>-version</code>:
+     * classes are compiled by that compiler, not this JVM's.
+     **/
+    protected String getCompilerIdentity()
+    {
+	List command = new ArrayList();
+	StringTokenizer st = new StringTokenizer(commandName);
+	while (st.hasMoreTokens())
+	    command.add(st.nextToken());
+
+	String version = getCommandVersion(command);
+	if (version == null)
+	    return null;
+	return super.getCompilerIdentity()
+	    + '\n' + commandName
+	    + '\n' + version;
+    }
+
     protected StringBuffer getCommand()
     {
 	StringBuffer cmd = new StringBuffer(commandName);
@@ -209,6 +291,11 @@ public class KSystemCompiler extends ProxyCompiler
 	    }
 	}
 
+	// Compiles of different classes run at the same time into the
+	// same destination, so each writes only its own classfiles.
+	if (!commandName.endsWith("jikes"))
+	    cmd.append(" -implicit:none");
+
 	if (dst != null)
 	    cmd.append(" -d ").append(dst);
 
@@ -235,4 +322,7 @@ public class KSystemCompiler extends ProxyCompiler
 
     // compiler command name (jikes, javac)
     protected String commandName;
+
+    // characters of each stream kept per compile
+    protected int outputLimit = KSystemCommand.DEFAULT_LIMIT;
 }
@@ -27,6 +27,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
 
 /**
  * Base <code>ProxyClass</code> implementation.  The
@@ -40,6 +51,66 @@ import java.util.ArrayList;
 **/
 public abstract class ProxyClass
 {
+    /**
+     * Check Policy meaning that the source is checked only when the
+     * <code>ProxyClassMonitor</code> has flagged the class dirty
+     * (see <code>setChanged()</code>).  Between changes a call costs
+     * a single stamp comparison.  This is the default.
+     **/
+    public static final int CHECK_DIRTY = 0;
+
+    /**
+     * Check Policy meaning that the <code>ProxyClassMonitor</code> is
+     * asked whether the source has changed on every call.  This is
+     * the most current and the most expensive policy.
+     **/
+    public static final int CHECK_ALWAYS = 1;
+
+    /**
+     * Check Policy meaning that the <code>ProxyClassMonitor</code> is
+     * asked whether the source has changed at most once every N
+     * milliseconds.
+     **/
+    public static final int CHECK_INTERVAL = 2;
+
+    /**
+     * Check Policy meaning that the <code>ProxyClassMonitor</code> is
+     * asked whether the source has changed on every Nth call.
+     **/
+    public static final int CHECK_COUNT = 3;
+
+    /**
+     * Check Policy meaning that calls never check; the class is only
+     * swapped when <code>hotswap()</code> is called explicitly, on
+     * the <code>ProxyClass</code> or on a <code>Proxy</code>.
+     **/
+    public static final int CHECK_MANUAL = 4;
+
+    /**
+     * Swap Mode meaning that a dirty class is recompiled and reloaded
+     * by the first caller to notice, which waits for the compile.
+     * This is the default.
+     **/
+    public static final int SWAP_SYNC = 0;
+
+    /**
+     * Swap Mode meaning that a dirty class is recompiled and reloaded
+     * on the executor of the <code>ProxyCompiler</code>, hottest
+     * class first (see <code>getPriority()</code>).  Callers keep
+     * being served by the current instances until the new class has
+     * compiled, loaded and prepared; the transaction then commits and
+     * the stamp moves.  No calling thread ever waits on the compiler.
+     **/
+    public static final int SWAP_ASYNC = 1;
+
+    /**
+     * Swap Mode meaning that, as with <code>SWAP_ASYNC</code>, the
+     * swap happens in the background, but through
+     * <code>ProxyCompiler.hotswapAll()</code>: every class that is
+     * dirty at that time is compiled in one batch, then swapped.
+     **/
+    public static final int SWAP_BATCH = 2;
+
     // ================================
     // Constructors
     // ================================
@@ -51,6 +122,15 @@ public abstract class ProxyClass
 	this.sourceFile = compiler.getSourceFile(cls.getName());
 	this.classFile = compiler.getClassFile(cls.getName());
 	this.proxies = new Stack();
+	this.stamp = new AtomicInteger();
+	this.checkPolicy = CHECK_DIRTY;
+	this.swapMode = SWAP_SYNC;
+	this.scheduled = new AtomicBoolean();
+	this.swapLock = new Object();
+	this.quietPeriod = compiler.getQuietPeriod();
+	this.minSwapInterval = compiler.getMinSwapInterval();
+	this.loaded = lastModified(classFile);
+	this.site = new MutableCallSite(target(0));
     }
 
     // ================================
@@ -185,9 +265,225 @@ public abstract class ProxyClass
 
     public void setChanged() {
         dirty = true;
+        start();
         fire(new ProxyClassDirtyEvent(this));
     }
 
+    /**
+     * Returns the <code>ProxyCompileEvent</code> of the last failed
+     * compile of this class, with its diagnostics, or
+     * <code>null</code> if it has compiled since.  Until the source
+     * changes, the class is not compiled again and its current
+     * implementation stays in use.
+    **/
+    public ProxyCompileEvent getLastFailure()
+    {
+	return compiler.getLastFailure(getName());
+    }
+
+    /**
+     * Returns the generation stamp of this <code>ProxyClass</code>.
+     * The stamp moves whenever the class is flagged dirty and
+     * whenever a hotswap transaction commits; a <code>Proxy</code>
+     * that has seen the current stamp is known to be up to date.
+    **/
+    public int getStamp()
+    {
+	return stamp.get();
+    }
+
+    /**
+     * Returns the call site through which the current object
+     * instance of a <code>Proxy</code> of this class is resolved.
+     * Its type is <code>(Proxy)Object</code>.  Between changes the
+     * target has the current stamp bound as a constant, so a
+     * constant reference to the site (an <code>invokedynamic</code>
+     * instruction, for example) lets the JIT inline straight through
+     * to the cached instance; the target is replaced whenever the
+     * stamp moves, which deoptimizes dependent code only at swap
+     * time.
+     *
+     * <P>
+     *
+     * While the class is draining (see <code>isDraining()</code>),
+     * the site returns a token for the entered generation instead;
+     * see <code>ProxyStub.hotswap_unwrap</code> and
+     * <code>ProxyStub.hotswap_exit</code>.
+    **/
+    public MutableCallSite getCallSite()
+    {
+	return site;
+    }
+
+    /**
+     * Sets the check policy; one of the <code>CHECK_XXX</code>
+     * constants in this class.  The parameter is the interval in
+     * milliseconds for <code>CHECK_INTERVAL</code>, the number of
+     * calls for <code>CHECK_COUNT</code>, and is ignored otherwise.
+     * The policy is honored on the invocation path of all
+     * <code>Proxy</code> instances of this class and by the
+     * <code>newInstance</code> methods.
+    **/
+    public void setCheckPolicy(int policy, long n)
+    {
+	switch (policy) {
+	case CHECK_INTERVAL:
+	case CHECK_COUNT:
+	    if (n <= 0)
+		throw new IllegalArgumentException
+		    ("Check policy parameter must be positive: " + n);
+	    break;
+	case CHECK_DIRTY:
+	case CHECK_ALWAYS:
+	case CHECK_MANUAL:
+	    break;
+	default:
+	    throw new IllegalArgumentException("Unknown check policy: " + policy);
+	}
+
+	synchronized (site) {
+	    this.checkParameter = n;
+	    this.checkPolicy = policy;
+	    this.checkCount = 0;
+	    this.lastCheck = 0;
+	    site.setTarget(target(stamp.get()));
+	    MutableCallSite.syncAll(new MutableCallSite[]{ site });
+	}
+    }
+
+    /**
+     * Sets a check policy that takes no parameter.
+    **/
+    public void setCheckPolicy(int policy)
+    {
+	setCheckPolicy(policy, 0);
+    }
+
+    /**
+     * Returns the check policy; one of the <code>CHECK_XXX</code>
+     * constants in this class.
+    **/
+    public int getCheckPolicy()
+    {
+	return checkPolicy;
+    }
+
+    /**
+     * Returns the parameter of the check policy.
+    **/
+    public long getCheckParameter()
+    {
+	return checkParameter;
+    }
+
+    /**
+     * Returns <code>true</code> if calls are tracked so that a
+     * replaced object instance is released only after the calls
+     * running on it have finished.
+    **/
+    public boolean isDraining()
+    {
+	return draining;
+    }
+
+    /**
+     * Sets the <code>isDraining</code> property.  If set to
+     * <code>true</code>, each call through a <code>Proxy</code> of
+     * this class enters and exits the generation of the instance it
+     * runs on.  A hotswap commit publishes the new instance at once;
+     * the old instance receives <code>hotswap_onRelease()</code> as
+     * soon as the last call still running on it returns, rather than
+     * being held for <code>Proxy.hotswap_release()</code>.  Tracking
+     * is lock-free but not free, so it is off by default.
+    **/
+    public void isDraining(boolean isDraining)
+    {
+	synchronized (site) {
+	    this.draining = isDraining;
+	    site.setTarget(target(stamp.get()));
+	    MutableCallSite.syncAll(new MutableCallSite[]{ site });
+	}
+    }
+
+    /**
+     * Sets the swap mode; one of the <code>SWAP_XXX</code> constants
+     * in this class.  If the class is already dirty, the pending swap
+     * is started according to the new mode.
+    **/
+    public void setSwapMode(int mode)
+    {
+	if (mode != SWAP_SYNC && mode != SWAP_ASYNC && mode != SWAP_BATCH)
+	    throw new IllegalArgumentException("Unknown swap mode: " + mode);
+
+	this.swapMode = mode;
+
+	if (dirty)
+	    start();
+    }
+
+    /**
+     * Returns the swap mode; one of the <code>SWAP_XXX</code>
+     * constants in this class.
+    **/
+    public int getSwapMode()
+    {
+	return swapMode;
+    }
+
+    /**
+     * Returns the quiet period in milliseconds.
+    **/
+    public long getQuietPeriod()
+    {
+	return quietPeriod;
+    }
+
+    /**
+     * Sets the number of milliseconds the sourcefile must go without
+     * change events before the <code>ProxyClassWatcher</code> flags
+     * the class changed.  A save that arrives as several events, or
+     * as a truncate and then a write, is then seen as one change,
+     * once the file is complete.  0 flags the class on each event.
+     * The default is that of the <code>ProxyCompiler</code>.
+    **/
+    public void setQuietPeriod(long quietPeriod)
+    {
+	if (quietPeriod < 0)
+	    throw new IllegalArgumentException("Negative quiet period: " + quietPeriod);
+	this.quietPeriod = quietPeriod;
+    }
+
+    /**
+     * Returns the minimum swap interval in milliseconds.
+    **/
+    public long getMinSwapInterval()
+    {
+	return minSwapInterval;
+    }
+
+    /**
+     * Sets the number of milliseconds that must pass after a swap
+     * commits before the <code>ProxyClassWatcher</code> flags the
+     * class changed again.  Changes made meanwhile are held back and
+     * flagged as one when the interval is up.  The default is that
+     * of the <code>ProxyCompiler</code>.
+    **/
+    public void setMinSwapInterval(long minSwapInterval)
+    {
+	if (minSwapInterval < 0)
+	    throw new IllegalArgumentException("Negative swap interval: " + minSwapInterval);
+	this.minSwapInterval = minSwapInterval;
+    }
+
+    /**
+     * Returns the <code>System.nanoTime()</code> at which the last
+     * hotswap transaction committed, or 0 if none has.
+    **/
+    long getSwapTime()
+    {
+	return swapTime;
+    }
+
     /**
      * Returns <code>true</code> if the sourcefile is newer than the
      * classfile, <code>false</code> if the sourcefile is not newer
@@ -299,8 +595,96 @@ public abstract class ProxyClass
      * If classloading is successful, any waiting
      * <code>ProxyEventListeners</code> will be notified of a
      * <code>ProxyClassSwapEvent</code>.
+     *
+     * <P>
+     *
+     * The compile and the classload run without holding this
+     * monitor; only the prepare and commit phases do, so callers
+     * brought up to date by <code>migrate()</code> never wait on the
+     * compiler.  Concurrent calls share one attempt: the first caller
+     * makes it, and the others wait for it and get its result, or
+     * its exception, rather than making attempts of their own.
+    **/
+    public boolean hotswap()
+    {
+	// A call from inside the attempt this thread is making (from
+	// newClassInstance(), for example) would wait on itself.
+	if (pilot == Thread.currentThread()) {
+	    boolean swapped;
+	    synchronized (swapLock) {
+		swapped = swap();
+	    }
+	    if (swapped)
+		compiler.hotswapDependents(this);
+	    return swapped;
+	}
+
+	CompletableFuture mine = new CompletableFuture();
+	CompletableFuture current;
+	while ((current = (CompletableFuture)flight.get()) == null) {
+	    if (flight.compareAndSet(null, mine))
+		return fly(mine);
+	}
+	return join(current);
+    }
+
+    /**
+     * Makes the attempt that <code>hotswap()</code> callers share,
+     * completing the given future with its outcome.
+    **/
+    private boolean fly(CompletableFuture mine)
+    {
+	boolean swapped;
+	pilot = Thread.currentThread();
+	try {
+	    synchronized (swapLock) {
+		swapped = swap();
+	    }
+	} catch (RuntimeException ex) {
+	    land(mine);
+	    mine.completeExceptionally(ex);
+	    throw ex;
+	} catch (Error err) {
+	    land(mine);
+	    mine.completeExceptionally(err);
+	    throw err;
+	}
+
+	// Callers arriving from now on make a new attempt, as they
+	// may have seen a change this one has not.
+	land(mine);
+	mine.complete(Boolean.valueOf(swapped));
+
+	// Outside the lock, as dependents may depend on us in turn.
+	if (swapped)
+	    compiler.hotswapDependents(this);
+	return swapped;
+    }
+
+    private void land(CompletableFuture mine)
+    {
+	pilot = null;
+	flight.compareAndSet(mine, null);
+    }
+
+    /**
+     * Waits for the attempt in flight and returns its outcome.
     **/
-    public synchronized boolean hotswap()
+    private static boolean join(CompletableFuture f)
+    {
+	try {
+	    return ((Boolean)f.join()).booleanValue();
+	} catch (CompletionException ex) {
+	    Throwable cause = ex.getCause();
+	    if (cause instanceof RuntimeException)
+		throw (RuntimeException)cause;
+	    if (cause instanceof Error)
+		throw (Error)cause;
+	    throw ex;
+	}
+    }
+
+    private boolean swap()
     {
         System.out.println("[KProxyClass] hotswap invoked");
 
@@ -323,19 +707,51 @@ public abstract class ProxyClass
         // }
 
 	// Recompile the class.
-	int rc = compiler.compile(cls.getName(), sourceFile, classFile);
+	int rc = compiler.compileLocked(cls.getName(), sourceFile, classFile);
 
-	// If it did NOT recompile, abort.
-	if (rc != ProxyCompiler.RC_COMPILE_SUCCESS) {
-	    return false;
-        }
+	switch (rc) {
 
-        dirty = false;
+	    /* if the classfile is already current, it may have been
+	       compiled by someone else (a batch, for instance) since
+	       the class was loaded; if not, there is nothing to do. */
+	case ProxyCompiler.RC_COMPILE_TRIVIAL:
+	    if (lastModified(classFile) <= loaded) {
+		dirty = false;
+		return false;
+	    }
+	    break;
+
+	case ProxyCompiler.RC_COMPILE_SUCCESS:
+	    break;
+
+	    /* If it did NOT recompile, abort. */
+	default:
+	    return false;
+	}
 
 	// Ok, the class has been successfully recompiled.  Next step
 	// is to reload the class.
+	return load();
+    }
 
-	Class oldClass = this.cls;
+    /**
+     * Reloads the class from its current classfile and swaps it in,
+     * without compiling it first.  Used by the compiler to swap
+     * classes it has just compiled in a batch, including dependents
+     * of changed classes whose own source has not changed.
+    **/
+    boolean reload()
+    {
+	synchronized (swapLock) {
+	    return load();
+	}
+    }
+
+    private boolean load()
+    {
+        dirty = false;
+
+	long stamp = lastModified(classFile);
 	Class newClass = null;
 
 	try {
@@ -350,6 +766,21 @@ public abstract class ProxyClass
 
 	}
 
+	if (!transact(newClass))
+	    return false;
+
+	loaded = stamp;
+	return true;
+    }
+
+    /**
+     * Runs the prepare and commit phases of a hotswap transaction
+     * against the given, already loaded, class.
+    **/
+    private synchronized boolean transact(Class newClass)
+    {
+	Class oldClass = this.cls;
+
 	// Create a new list that will contain all successfully
 	// prepared proxies.
 	List prepared = new ArrayList(proxies.size());
@@ -384,6 +815,8 @@ public abstract class ProxyClass
 	    // The transaction has succeeded.  Drop the old class and
 	    // replace it with the new.
 	    this.cls = newClass;
+	    swapTime = System.nanoTime();
+	    advance();
 
 	    // Finally, notify the listeners.
 	    if (hasListeners())
@@ -403,6 +836,222 @@ public abstract class ProxyClass
 	return commit;
     }
 
+    /**
+     * Brings a single proxy up to date with the current
+     * <code>Class</code>.  A proxy that was not enqueued when the
+     * last transaction committed still holds an instance of the
+     * previous class; it is swapped here in a transaction of its
+     * own.
+    **/
+    synchronized boolean migrate(KProxy proxy)
+    {
+	Object obj = proxy.obj;
+	if (obj == null || obj.getClass() == cls)
+	    return true;
+
+	dequeue(proxy);
+
+	if (proxy.hotswap_prepare(cls)) {
+	    proxy.hotswap_commit();
+	    return true;
+	} else {
+	    proxy.hotswap_rollback();
+	    return false;
+	}
+    }
+
+    /**
+     * Returns the priority of a pending background swap of this
+     * class: the number of <code>Proxy</code> instances enqueued for
+     * it plus the number of calls made through its proxies since the
+     * swap was requested.  Classes on the hot path of the application
+     * come first; a class nobody uses has priority 0 and is only
+     * swapped once there is nothing else to do.
+    **/
+    public long getPriority()
+    {
+	return proxies.size() + traffic.sum();
+    }
+
+    /**
+     * Starts or stops counting the calls made through the proxies of
+     * this class.  The count is folded into the call site only while
+     * a swap is pending, so calls cost nothing extra the rest of the
+     * time.  Starting resets the count.
+    **/
+    void count(boolean isCounting)
+    {
+	synchronized (site) {
+	    if (this.counting == isCounting)
+		return;
+	    if (isCounting)
+		traffic.reset();
+	    this.counting = isCounting;
+	    site.setTarget(target(stamp.get()));
+	    MutableCallSite.syncAll(new MutableCallSite[]{ site });
+	}
+    }
+
+    /**
+     * Moves the stamp and retargets the call site to match.  Guarded
+     * by the site rather than this monitor so the watcher thread is
+     * never held up behind a compile; the guard keeps the site from
+     * being left on an older stamp.
+    **/
+    void advance()
+    {
+	synchronized (site) {
+	    site.setTarget(target(stamp.incrementAndGet()));
+	    MutableCallSite.syncAll(new MutableCallSite[]{ site });
+	}
+    }
+
+    /**
+     * Returns the call site target for the given stamp under the
+     * current check policy.
+    **/
+    MethodHandle target(int stamp)
+    {
+	Object[] bound = new Object[]{ Integer.valueOf(stamp) };
+	MethodHandle target;
+
+	switch (checkPolicy) {
+	case CHECK_MANUAL:
+	    target = INSTANCE;
+	    break;
+	case CHECK_DIRTY:
+	    target = MethodHandles.insertArguments(CURRENT, 0, bound);
+	    break;
+	default:
+	    target = MethodHandles.insertArguments(CHECKED, 0, bound);
+	    break;
+	}
+
+	// While a swap is pending, each call is counted.
+	if (counting)
+	    target = MethodHandles.foldArguments
+		(target, MethodHandles.dropArguments(COUNT.bindTo(traffic), 0, Proxy.class));
+
+	// When draining, the site hands out the entered generation
+	// rather than the bare instance.
+	return draining
+	    ? MethodHandles.foldArguments(ENTER, target)
+	    : target;
+    }
+
+    /**
+     * Applies the check policy on behalf of a call.  If the policy
+     * says it is time to check and the monitor reports a change, the
+     * class is flagged dirty and <code>true</code> is returned.
+    **/
+    boolean check()
+    {
+	switch (checkPolicy) {
+
+	case CHECK_DIRTY:
+	case CHECK_MANUAL:
+	    return false;
+
+	case CHECK_INTERVAL:
+	    long now = System.currentTimeMillis();
+	    if (now - lastCheck < checkParameter)
+		return false;
+	    lastCheck = now;
+	    break;
+
+	case CHECK_COUNT:
+	    // Racy increments only make the period approximate.
+	    if (++checkCount < checkParameter)
+		return false;
+	    checkCount = 0;
+	    break;
+	}
+
+	if (dirty)
+	    return false;
+
+	Boolean changed;
+	try {
+	    changed = compiler.monitor.hasChanged(this);
+	} catch (ProxyException pex) {
+	    // eg the source went missing; keep the current class.
+	    return false;
+	}
+
+	if (!Boolean.TRUE.equals(changed))
+	    return false;
+
+	setChanged();
+	return true;
+    }
+
+    /**
+     * Returns <code>true</code> if a <code>newInstance</code> method
+     * should hotswap before creating the <code>Proxy</code>, applying
+     * the check policy.
+    **/
+    boolean isStale()
+    {
+	if (checkPolicy == CHECK_MANUAL)
+	    return false;
+	check();
+	return dirty && swapMode == SWAP_SYNC;
+    }
+
+    /**
+     * Starts the swap of a dirty class according to the swap mode.
+     * In <code>SWAP_SYNC</code> mode that means moving the stamp so
+     * the next call takes the slow path.
+    **/
+    void start()
+    {
+	switch (swapMode) {
+	case SWAP_ASYNC:
+	    schedule();
+	    break;
+	case SWAP_BATCH:
+	    count(true);
+	    compiler.scheduleAll();
+	    break;
+	default:
+	    advance();
+	    break;
+	}
+    }
+
+    /**
+     * Queues a background hotswap with the <code>ProxyCompiler</code>,
+     * unless one is already waiting to run.  A change that arrives
+     * while a swap is running schedules another, which picks up where
+     * the first left off.
+    **/
+    void schedule()
+    {
+	if (!scheduled.compareAndSet(false, true))
+	    return;
+
+	count(true);
+	if (!compiler.schedule(this)) {
+	    count(false);
+	    scheduled.set(false);
+	}
+    }
+
+    /**
+     * Runs the background hotswap queued by <code>schedule()</code>,
+     * once the compiler gets to it.
+    **/
+    void runScheduled()
+    {
+	scheduled.set(false);
+	count(false);
+	try {
+	    hotswap();
+	} catch (RuntimeException ex) {
+	    log("background hotswap of " + getName() + " failed: " + ex);
+	}
+    }
+
     synchronized boolean hasListeners()
     {
 	return listeners != null && listeners.size() > 0;
@@ -416,17 +1065,33 @@ public abstract class ProxyClass
     synchronized void enqueue(KProxy proxy)
     {
       //log("[KProxyClass] enqueue: " + proxy);
-	proxies.add(proxy);
+	if (indexOf(proxy) < 0)
+	    proxies.add(proxy);
     }
 
     synchronized void dequeue(KProxy proxy)
     {
-	proxies.remove(proxy);
+	int i = indexOf(proxy);
+	if (i >= 0)
+	    proxies.remove(i);
     }
 
     synchronized boolean isEnqueued(KProxy proxy)
     {
-	return proxies.contains(proxy);
+	return indexOf(proxy) >= 0;
+    }
+
+    /**
+     * Identity scan of the proxy stack; <code>KProxy.equals</code>
+     * compares constructor arguments and is both too slow and too
+     * loose for membership tests.
+    **/
+    private int indexOf(KProxy proxy)
+    {
+	for (int i = proxies.size() - 1; i >= 0; i--)
+	    if (proxies.get(i) == proxy)
+		return i;
+	return -1;
     }
 
     // ================================
@@ -436,7 +1101,7 @@ public abstract class ProxyClass
     /**
      * Returns a new intance of this <code>Class</code>.
     **/
-    synchronized protected Class newClassInstance()
+    protected Class newClassInstance()
     {
 	try {
 
@@ -450,6 +1115,19 @@ public abstract class ProxyClass
 	}
     }
 
+    /**
+     * Returns the time of last modification of the given resource,
+     * or zero if it cannot be determined.
+    **/
+    protected static long lastModified(ProxyCompiler.Resource r)
+    {
+	try {
+	    return r.lastModified();
+	} catch (IOException ioex) {
+	    return 0;
+	}
+    }
+
     synchronized protected void fire(ProxyEvent evt)
     {
 	if (hasListeners()) {
@@ -478,6 +1156,69 @@ public abstract class ProxyClass
     protected boolean isAutoEnqueue;
 
     // Boolean field to be set to true when hotswap should occur.
-    protected boolean dirty;
+    protected volatile boolean dirty;
+
+    // Generation stamp; see getStamp().
+    protected final AtomicInteger stamp;
+
+    // Resolves the current instance; see getCallSite().
+    protected final MutableCallSite site;
+
+    // Check policy; see setCheckPolicy().
+    protected volatile int checkPolicy;
+    protected volatile long checkParameter;
+    protected int checkCount;
+    protected volatile long lastCheck;
+
+    // Swap mode; see setSwapMode().  A background swap is pending
+    // while scheduled is set; swapLock serializes swaps.
+    protected volatile int swapMode;
+    protected final AtomicBoolean scheduled;
+    protected final Object swapLock;
+
+    // The hotswap() attempt in flight, shared by concurrent callers,
+    // and the thread making it.
+    protected final AtomicReference flight = new AtomicReference();
+    protected volatile Thread pilot;
+
+    // Time of last modification of the classfile the current class
+    // was loaded from.
+    protected volatile long loaded;
+
+    // See isDraining().
+    protected volatile boolean draining;
+
+    // See setQuietPeriod() and setMinSwapInterval(); swapTime is
+    // the nanoTime of the last commit.
+    protected volatile long quietPeriod;
+    protected volatile long minSwapInterval;
+    protected volatile long swapTime;
+
+    // Calls made while a swap is pending; see getPriority().
+    protected final LongAdder traffic = new LongAdder();
+    protected volatile boolean counting;
+
+    // KProxy.current(int, Proxy), KProxy.checked(int, Proxy),
+    // KProxy.instance(Proxy) and KProxy.enter(Object, Proxy);
+    // LongAdder.increment()
+    static final MethodHandle CURRENT;
+    static final MethodHandle CHECKED;
+    static final MethodHandle INSTANCE;
+    static final MethodHandle ENTER;
+    static final MethodHandle COUNT;
+
+    static {
+	try {
+	    MethodHandles.Lookup lookup = MethodHandles.lookup();
+	    MethodType type = MethodType.methodType(Object.class, Integer.TYPE, Proxy.class);
+	    CURRENT = lookup.findStatic(KProxy.class, "current", type);
+	    CHECKED = lookup.findStatic(KProxy.class, "checked", type);
+	    INSTANCE = lookup.findStatic(KProxy.class, "instance", type.dropParameterTypes(0, 1));
+	    ENTER = lookup.findStatic(KProxy.class, "enter", type.changeParameterType(0, Object.class));
+	    COUNT = lookup.findVirtual(LongAdder.class, "increment", MethodType.methodType(Void.TYPE));
+	} catch (Exception ex) {
+	    throw new ExceptionInInitializerError(ex);
+	}
+    }
 
 }
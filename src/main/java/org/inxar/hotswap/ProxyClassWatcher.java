@@ -24,6 +24,10 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
@@ -51,6 +55,13 @@ public class ProxyClassWatcher implements ProxyClassMonitor
     protected final WatchService service;
     protected volatile Thread listener;
 
+    // Classes whose change events are being held back, mapped to
+    // the nanoTime until which they are, and the nanoTime at which
+    // a change of each was last passed on; see settle().
+    protected final Map<ProxyClass,Long> holding = new ConcurrentHashMap();
+    protected final Map<ProxyClass,Long> passed = new ConcurrentHashMap();
+    protected ScheduledThreadPoolExecutor settler;
+
     protected static class DirEntry {
         List<ProxyClass> classes = new ArrayList();
         WatchKey key;
@@ -71,7 +82,8 @@ public class ProxyClassWatcher implements ProxyClassMonitor
         this.compiler = compiler;
     }
     /**
-     * Compare timestamps of source and class file.
+     * Compare source and class file (see
+     * <code>ProxyCompiler.filestat()</code>).
      */
     public Boolean hasChanged(ProxyClass cls) {
 
@@ -144,6 +156,8 @@ public class ProxyClassWatcher implements ProxyClassMonitor
         if (classes.containsKey(file)) {
             Path dir = file.getParent();
             classes.remove(file);
+            holding.remove(cls);
+            passed.remove(cls);
             unregister(dir, cls);
             System.out.println("[ProxyClassWatcher]: Unwatching " + file);
         }
@@ -210,6 +224,120 @@ public class ProxyClassWatcher implements ProxyClassMonitor
         if (t != null) {
             t.interrupt();
         }
+        synchronized (this) {
+            if (settler != null) {
+                settler.shutdownNow();
+                settler = null;
+            }
+        }
+        holding.clear();
+        passed.clear();
+    }
+
+    /**
+     * Takes a change event for the given class.  If the class has a
+     * quiet period or a minimum swap interval (see
+     * <code>ProxyClass.setQuietPeriod()</code> and
+     * <code>ProxyClass.setMinSwapInterval()</code>), the change is
+     * held back until the file has been quiet that long and the
+     * interval since the last swap is up; events that arrive
+     * meanwhile only extend the wait.  Otherwise the change is
+     * passed on at once.
+     */
+    protected void event(ProxyClass cls, Path file) {
+        long quiet = TimeUnit.MILLISECONDS.toNanos(cls.getQuietPeriod());
+        if (quiet == 0 && cls.getMinSwapInterval() == 0) {
+            changed(cls, file);
+            return;
+        }
+
+        // The first event of a burst starts the wait.
+        if (holding.put(cls, Long.valueOf(System.nanoTime() + quiet)) == null) {
+            settle(cls, file, quiet);
+        }
+    }
+
+    /**
+     * Checks, after the given number of nanoseconds, whether the held
+     * change of the given class may be passed on, and waits again if
+     * not.
+     */
+    protected void settle(final ProxyClass cls, final Path file, long delay) {
+        getSettler().schedule(new Runnable() {
+                public void run() {
+                    Long until = holding.get(cls);
+                    if (until == null) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    long wait = until.longValue() - now;
+
+                    // The interval runs from the last swap, or from
+                    // the last change passed on if that is still
+                    // being swapped.
+                    Long last = passed.get(cls);
+                    long since = cls.getSwapTime();
+                    if (last != null && (since == 0 || last.longValue() - since > 0)) {
+                        since = last.longValue();
+                    }
+                    if (since != 0) {
+                        long interval = TimeUnit.MILLISECONDS.toNanos(cls.getMinSwapInterval());
+                        wait = Math.max(wait, since + interval - now);
+                    }
+
+                    if (wait > 0) {
+                        settle(cls, file, wait);
+                    } else if (holding.remove(cls, until)) {
+                        passed.put(cls, Long.valueOf(now));
+                        changed(cls, file);
+                    } else {
+                        // Another event came in just now.
+                        settle(cls, file, 0);
+                    }
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the thread that passes on held changes, starting it on
+     * first use.
+     */
+    protected synchronized ScheduledThreadPoolExecutor getSettler() {
+        if (settler == null) {
+            settler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "hotswap-watcher-settler");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return settler;
+    }
+
+    /**
+     * Marks the given class as changed, unless the content of its
+     * source is what its classfile was compiled from, or what it
+     * last failed to compile from.
+     */
+    protected void changed(ProxyClass cls, Path file) {
+        // The file was written, so read it again even if it was read
+        // too recently for its time of last modification to tell.
+        compiler.fingerprints.forget(cls.getSourceFile());
+
+        Boolean changed;
+        try {
+            changed = hasChanged(cls);
+        } catch (ProxyException ex) {
+            changed = null;
+        }
+        if (Boolean.FALSE.equals(changed)) {
+            return;
+        }
+        if (Boolean.TRUE.equals(changed) && compiler.hasFailed(cls)) {
+            return;
+        }
+        cls.setChanged();
     }
 
     protected void listen() throws InterruptedException {
@@ -233,8 +361,10 @@ public class ProxyClassWatcher implements ProxyClassMonitor
                 ProxyClass cls = classes.get(file);
                 if (cls != null) {
                     System.out.println(kind.name() + ": " + file);
-                    if (kind == ENTRY_MODIFY) {
-                        cls.setChanged();
+                    // Editors that save by renaming a new file into
+                    // place produce a create rather than a modify.
+                    if (kind == ENTRY_MODIFY || kind == ENTRY_CREATE) {
+                        event(cls, file);
                     } else {
                         System.err.println("Ignoring event kind " + kind + " for " + file);
                     }
@@ -20,6 +20,10 @@
  */
 package org.inxar.hotswap;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * <code>ProxyEvent</code> message sent to listeners when a
  * <code>ProxyCompiler</code> attempts a compile.
@@ -55,6 +59,22 @@ public class ProxyCompileEvent extends ProxyEvent
 	this.rc = rc;
     }
 
+    /**
+     * Constructor for compilers that report structured diagnostics.
+     * If <code>out</code> is <code>null</code>, <code>getOut()</code>
+     * prints the diagnostics the first time it is called.
+    **/
+    public ProxyCompileEvent(ProxyCompiler source,
+			     String className,
+			     String cmd,
+			     String out,
+			     String err,
+			     int rc,
+			     List diagnostics)
+    {
+	this(source, className, cmd, out, err, rc);
+	this.diagnostics = diagnostics;
+    }
 
     /**
      * Prints a summary of the compilation.
@@ -88,6 +108,14 @@ public class ProxyCompileEvent extends ProxyEvent
 	    b.append("COMPILATION SUCCESS");
 	    break;
 
+	case ProxyCompiler.RC_COMPILE_TIMEOUT:
+	    b.append("COMPILATION TIMED OUT");
+	    break;
+
+	case ProxyCompiler.RC_COMPILE_INTERRUPTED:
+	    b.append("COMPILATION INTERRUPTED");
+	    break;
+
 	    /* we missed a case */
 	default:
 	    throw new InternalError(); // bad coding
@@ -103,6 +131,7 @@ public class ProxyCompileEvent extends ProxyEvent
 		.append(cmd).append(NL)
 		.append("<<<<<<<<").append(NL)
 		.append(NL);
+	String out = getOut();
 	if (out != null && out.length() > 0)
 	    b.append(">>>>>>>> STDOUT:").append(NL)
 		.append(out).append(NL)
@@ -139,6 +168,12 @@ public class ProxyCompileEvent extends ProxyEvent
     **/
     public String getOut()
     {
+	if (out == null && diagnostics != null && diagnostics.size() > 0) {
+	    StringBuffer b = new StringBuffer();
+	    for (int i = 0; i < diagnostics.size(); i++)
+		b.append(diagnostics.get(i)).append(NL).append(NL);
+	    out = b.toString();
+	}
 	return out;
     }
 
@@ -150,6 +185,18 @@ public class ProxyCompileEvent extends ProxyEvent
 	return err;
     }
 
+    /**
+     * Returns the <code>ProxyDiagnostic</code>s the compiler reported
+     * for this class, which is empty if it reported none or cannot
+     * tell them apart from its other output.
+    **/
+    public List getDiagnostics()
+    {
+	return diagnostics != null
+	    ? Collections.unmodifiableList(diagnostics)
+	    : Collections.EMPTY_LIST;
+    }
+
     /**
      * Returns the return code from the
      * <code>ProxyCompiler_compile()</code> method.
@@ -159,9 +206,31 @@ public class ProxyCompileEvent extends ProxyEvent
 	return rc;
     }
 
+    /**
+     * Returns a copy of this event that can be kept after the
+     * compile: its output is printed now, and its diagnostics are
+     * copied into plain <code>ProxyDiagnostic</code>s, which hold no
+     * references into the compiler that reported them.
+    **/
+    ProxyCompileEvent detach()
+    {
+	List copies = null;
+	if (diagnostics != null) {
+	    copies = new ArrayList(diagnostics.size());
+	    for (int i = 0; i < diagnostics.size(); i++) {
+		ProxyDiagnostic d = (ProxyDiagnostic)diagnostics.get(i);
+		copies.add(new ProxyDiagnostic(d.getKind(), d.getSource(),
+					       d.getLine(), d.getColumn(),
+					       d.getCode(), d.getMessage()));
+	    }
+	}
+	return new ProxyCompileEvent((ProxyCompiler)getSource(), className, cmd, getOut(), err, rc, copies);
+    }
+
     protected String cmd;
     protected String out;
     protected String err;
     protected String className;
     protected int rc;
+    protected List diagnostics;
 }
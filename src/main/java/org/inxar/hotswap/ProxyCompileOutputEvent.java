@@ -0,0 +1,106 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+/**
+ * <code>ProxyEvent</code> message sent to output listeners (see
+ * <code>ProxyCompiler.addOutputListener()</code>) for each line a
+ * compiler writes, while the compile is still running.  The
+ * <code>ProxyCompileEvent</code> sent when the compile is done
+ * carries the whole output as well.  If the compiler recognized the
+ * line as a diagnostic, <code>getDiagnostic()</code> returns it.
+**/
+public class ProxyCompileOutputEvent extends ProxyEvent
+{
+    /**
+     * Constructs an event for the given line of standard output or,
+     * if <code>isErr</code> is <code>true</code>, standard error.
+    **/
+    public ProxyCompileOutputEvent(ProxyCompiler source,
+				   String className,
+				   String line,
+				   boolean isErr)
+    {
+	super(source);
+	this.className = className;
+	this.line = line;
+	this.isErr = isErr;
+    }
+
+    /**
+     * Constructs an event for the given diagnostic.  The line is the
+     * printed form of the diagnostic, worked out when first asked
+     * for.
+    **/
+    public ProxyCompileOutputEvent(ProxyCompiler source,
+				   String className,
+				   ProxyDiagnostic diagnostic)
+    {
+	this(source, className, (String)null, diagnostic.isError());
+	this.diagnostic = diagnostic;
+    }
+
+    public String toString()
+    {
+	return className + (isErr ? " [stderr] " : " [stdout] ") + getLine();
+    }
+
+    /**
+     * Returns the name of the class being compiled.
+    **/
+    public String getClassName()
+    {
+	return className;
+    }
+
+    /**
+     * Returns the line, without its line terminator.
+    **/
+    public String getLine()
+    {
+	if (line == null && diagnostic != null)
+	    line = diagnostic.toString();
+	return line;
+    }
+
+    /**
+     * Returns the diagnostic this line holds, or <code>null</code> if
+     * it is not one the compiler recognized.
+    **/
+    public ProxyDiagnostic getDiagnostic()
+    {
+	return diagnostic;
+    }
+
+    /**
+     * Returns <code>true</code> if the line was written to standard
+     * error.
+    **/
+    public boolean isErr()
+    {
+	return isErr;
+    }
+
+    protected String className;
+    protected String line;
+    protected boolean isErr;
+    protected ProxyDiagnostic diagnostic;
+}
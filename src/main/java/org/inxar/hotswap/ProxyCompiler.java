@@ -21,18 +21,40 @@
 package org.inxar.hotswap;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.StringWriter;
 import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Iterator;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Base <code>ProxyCompiler</code> implementation; it is responsible
@@ -74,6 +96,22 @@ public abstract class ProxyCompiler
      **/
     public static final int RC_COMPILE_UNKNOWN = 4;
 
+    /**
+     * Compilation Return Code meaning that a compilation was
+     * attempted and abandoned because it ran longer than the compile
+     * timeout (see <code>setCompileTimeout()</code>).  Nothing it
+     * produced is used.
+     **/
+    public static final int RC_COMPILE_TIMEOUT = 8;
+
+    /**
+     * Compilation Return Code meaning that a compilation was
+     * attempted and abandoned because the thread waiting for it was
+     * interrupted; the interrupt is kept.  Nothing it produced is
+     * used.
+     **/
+    public static final int RC_COMPILE_INTERRUPTED = 16;
+
     /**
      * Filestat Return Code meaning the classfile is current; no
      * compilation is necessary.
@@ -97,6 +135,33 @@ public abstract class ProxyCompiler
      **/
     public static final int RC_FILESTAT_UNKNOWN = 3;
 
+    /**
+     * Proxy Strategy meaning that <code>Proxy</code> instances are
+     * <code>java.lang.reflect.Proxy</code> dynamic proxies that
+     * dispatch through a <code>ProxyInvocationHandler</code>.  This
+     * is the default.
+     **/
+    public static final int PROXY_STRATEGY_REFLECT = 0;
+
+    /**
+     * Proxy Strategy meaning that <code>Proxy</code> instances are
+     * instances of a generated <code>ProxyStub</code> subclass that
+     * implements the interfaces directly.  Calls cost about the same
+     * as a plain interface call and allocate nothing: no argument
+     * array, and no boxing of primitive arguments or return values.
+     * <code>Proxy</code> instances created with an explicit
+     * <code>InvocationHandler</code> (the <code>newInstanceH</code>
+     * methods) are still dynamic proxies.
+     **/
+    public static final int PROXY_STRATEGY_GENERATED = 1;
+
+    /**
+     * System property holding the time budget, in milliseconds, of
+     * the compiler warm-up that <code>warmUp()</code> starts.  Unset
+     * or zero means no warm-up.
+     **/
+    public static final String WARMUP_PROPERTY = "org.inxar.hotswap.warmup";
+
     /**
      * Cached instance of
      * <code>System.getProperty("path.separator")</code> (unix = ':',
@@ -223,6 +288,239 @@ public abstract class ProxyCompiler
 	return cps;
     }
 
+    /**
+     * Sets the strategy used by the <code>load</code> methods to
+     * create interface-implementing <code>ProxyClass</code>
+     * instances; one of the <code>PROXY_STRATEGY_XXX</code>
+     * constants in this class.  Only <code>ProxyClass</code>
+     * instances loaded after the call are affected.
+     **/
+    synchronized public void setProxyStrategy(int strategy)
+    {
+	if (strategy != PROXY_STRATEGY_REFLECT &&
+	    strategy != PROXY_STRATEGY_GENERATED)
+	    throw new IllegalArgumentException
+		("Unknown proxy strategy: " + strategy);
+	this.strategy = strategy;
+    }
+
+    /**
+     * Returns the proxy strategy; one of the
+     * <code>PROXY_STRATEGY_XXX</code> constants in this class.
+     **/
+    synchronized public int getProxyStrategy()
+    {
+	return strategy;
+    }
+
+    /**
+     * Returns the quiet period given to <code>ProxyClass</code>
+     * instances when they are loaded (see
+     * <code>ProxyClass.setQuietPeriod()</code>).
+     **/
+    synchronized public long getQuietPeriod()
+    {
+	return quietPeriod;
+    }
+
+    /**
+     * Sets the quiet period given to <code>ProxyClass</code>
+     * instances when they are loaded, in milliseconds.  Only
+     * <code>ProxyClass</code> instances loaded after the call are
+     * affected.  The default is 0.
+     **/
+    synchronized public void setQuietPeriod(long quietPeriod)
+    {
+	if (quietPeriod < 0)
+	    throw new IllegalArgumentException("Negative quiet period: " + quietPeriod);
+	this.quietPeriod = quietPeriod;
+    }
+
+    /**
+     * Returns the minimum swap interval given to
+     * <code>ProxyClass</code> instances when they are loaded (see
+     * <code>ProxyClass.setMinSwapInterval()</code>).
+     **/
+    synchronized public long getMinSwapInterval()
+    {
+	return minSwapInterval;
+    }
+
+    /**
+     * Sets the minimum swap interval given to
+     * <code>ProxyClass</code> instances when they are loaded, in
+     * milliseconds.  Only <code>ProxyClass</code> instances loaded
+     * after the call are affected.  The default is 0.
+     **/
+    synchronized public void setMinSwapInterval(long minSwapInterval)
+    {
+	if (minSwapInterval < 0)
+	    throw new IllegalArgumentException("Negative swap interval: " + minSwapInterval);
+	this.minSwapInterval = minSwapInterval;
+    }
+
+    /**
+     * Returns the <code>Executor</code> that runs background hotswaps
+     * for <code>ProxyClass</code> instances in
+     * <code>SWAP_ASYNC</code> and <code>SWAP_BATCH</code> mode.
+     * Unless one has been set, a
+     * single daemon thread is created on first use.
+     **/
+    synchronized public Executor getExecutor()
+    {
+	if (executor == null)
+	    executor = newExecutor();
+	return executor;
+    }
+
+    /**
+     * Sets the <code>Executor</code> that runs background hotswaps.
+     * Tasks already submitted to the previous executor are not
+     * affected.
+     **/
+    synchronized public void setExecutor(Executor executor)
+    {
+	if (executor == null)
+	    throw new IllegalArgumentException("Executor must not be null");
+	this.executor = executor;
+    }
+
+    /**
+     * Returns the maximum number of compiles that run at once.
+     **/
+    synchronized public int getCompileWorkers()
+    {
+	return workers;
+    }
+
+    /**
+     * Sets the maximum number of compiles that run at once.  Classes
+     * compiled together by <code>compileAll()</code> are split into
+     * groups that do not depend on one another, and the groups are
+     * compiled concurrently on a pool of this many worker threads.
+     * The default is half the available processors, leaving the
+     * rest to the application.
+     **/
+    synchronized public void setCompileWorkers(int workers)
+    {
+	if (workers < 1)
+	    throw new IllegalArgumentException("Need at least one compile worker: " + workers);
+	this.workers = workers;
+	shutdownWorkers();
+    }
+
+    /**
+     * Returns the priority of the compile worker threads and of the
+     * default background hotswap thread.
+     **/
+    synchronized public int getCompilePriority()
+    {
+	return priority;
+    }
+
+    /**
+     * Sets the priority of the compile worker threads and of the
+     * default background hotswap thread; lowering it keeps
+     * compilation from starving the application's own threads.  The
+     * default is <code>Thread.NORM_PRIORITY</code>.  Threads already
+     * started keep their priority.
+     **/
+    synchronized public void setCompilePriority(int priority)
+    {
+	if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY)
+	    throw new IllegalArgumentException("Bad thread priority: " + priority);
+	this.priority = priority;
+	shutdownWorkers();
+    }
+
+    /**
+     * Returns the number of milliseconds a single compile may take,
+     * or 0 if there is no limit.
+     **/
+    synchronized public long getCompileTimeout()
+    {
+	return timeout;
+    }
+
+    /**
+     * Sets the number of milliseconds a single compile may take; 0,
+     * the default, means no limit.  A compile that runs longer is
+     * abandoned and reported with <code>RC_COMPILE_TIMEOUT</code>,
+     * and the class keeps its current implementation.  An external
+     * compiler process is killed.  An in-process compile is left on
+     * its thread with its output thrown away; the compiler API stops
+     * it at the next point where javac calls back, while
+     * <code>KJavacCompiler</code> lets it run to the end in a
+     * directory of its own.
+     **/
+    synchronized public void setCompileTimeout(long timeout)
+    {
+	if (timeout < 0)
+	    throw new IllegalArgumentException("Negative compile timeout: " + timeout);
+	this.timeout = timeout;
+    }
+
+    /**
+     * Returns the directory of the persistent compile cache, or
+     * <code>null</code> if there is none.
+     **/
+    synchronized public String getCachepath()
+    {
+	return cache != null ? cache.getDirectory().getPath() : null;
+    }
+
+    /**
+     * Sets the directory of the persistent compile cache, or
+     * <code>null</code> (the default) for none.  Before compiling a
+     * class the compiler looks there for the classfiles of an earlier
+     * compile, by this or another JVM, of the same sourcefile with
+     * the same compiler, classpath, sourcepath and options, and
+     * defines those instead if the sourcefiles of the classes they
+     * refer to are unchanged as well.  Several JVMs may share the
+     * directory.
+     **/
+    synchronized public void setCachepath(String dir)
+    {
+	this.cache = dir != null ? new KCompileCache(new File(dir)) : null;
+    }
+
+    /**
+     * Starts a warm-up of the compiler if the
+     * <code>WARMUP_PROPERTY</code> system property asks for one;
+     * otherwise returns <code>null</code>.  Call it once the
+     * classpath, sourcepath and destination are set.
+     **/
+    public Future warmUp()
+    {
+	long millis = Long.getLong(WARMUP_PROPERTY, 0L).longValue();
+	return millis > 0 ? warmUp(millis) : null;
+    }
+
+    /**
+     * Warms the compiler up on a background thread for at most about
+     * the given number of milliseconds, so that the first real
+     * compile does not pay for loading and JIT-compiling the compiler
+     * itself.  A compile under way when the time is up is allowed to
+     * finish.  Call it once the classpath, sourcepath and destination
+     * are set.  The returned <code>Future</code> completes when the
+     * warm-up is over.
+     **/
+    public Future warmUp(long millis)
+    {
+	final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+	FutureTask task = new FutureTask(new Runnable() {
+		public void run() {
+		    try {
+			warm(deadline);
+		    } catch (Exception ex) {
+			log("warm-up failed: " + ex);
+		    }
+		}
+	    }, null);
+	newThreadFactory("hotswap-warmup").newThread(task).start();
+	return task;
+    }
+
     /**
      * Adds the given listener of <code>ProxyCompileEvent</code>s.
      **/
@@ -242,6 +540,28 @@ public abstract class ProxyCompiler
 	    listeners.remove(l);
     }
 
+    /**
+     * Adds the given listener of <code>ProxyCompileOutputEvent</code>s,
+     * which are sent for each line of compiler output as it is
+     * produced.
+     **/
+    synchronized public void addOutputListener(ProxyEventListener l)
+    {
+	if (outputListeners == null)
+	    outputListeners = new LinkedList();
+	outputListeners.add(l);
+    }
+
+    /**
+     * Removes the given listener of
+     * <code>ProxyCompileOutputEvent</code>s.
+     **/
+    synchronized public void removeOutputListener(ProxyEventListener l)
+    {
+	if (outputListeners != null)
+	    outputListeners.remove(l);
+    }
+
     /**
      * Returns the <code>Collection</code> of <code>ProxyClass</code>
      * instances in this compiler instance.
@@ -297,6 +617,9 @@ public abstract class ProxyCompiler
      *
      * This <code>Foo</code> implementation will transparently monitor
      * implementation changes and hotswap itself as necessary.
+     *
+     * <P>The kind of proxy is chosen by the proxy strategy (see
+     * <code>setProxyStrategy(int)</code>).
      **/
     synchronized public ProxyClass load(String className, Class[] interfaces)
     {
@@ -307,7 +630,7 @@ public abstract class ProxyCompiler
 
 	try {
 
-  	    pc = new KJDK13ProxyClass(this, loadClass(className), interfaces);
+  	    pc = newProxyClass(loadClass(className), interfaces);
   	    add(className, pc);
   	    return pc;
 
@@ -331,7 +654,8 @@ public abstract class ProxyCompiler
 
 	try {
 
-  	    pc = new KJDK13ProxyClass(this, loadClass(className));
+  	    Class cls = loadClass(className);
+  	    pc = newProxyClass(cls, cls.getInterfaces());
   	    add(className, pc);
   	    return pc;
 
@@ -340,6 +664,25 @@ public abstract class ProxyCompiler
 	}
     }
 
+    /**
+     * Creates an interface-implementing <code>ProxyClass</code>
+     * according to the current proxy strategy.
+     */
+    protected ProxyClass newProxyClass(Class cls, Class[] interfaces)
+    {
+	switch (strategy) {
+
+	case PROXY_STRATEGY_GENERATED:
+	    return new KStubProxyClass(this, cls, interfaces);
+
+	case PROXY_STRATEGY_REFLECT:
+	    return new KJDK13ProxyClass(this, cls, interfaces);
+
+	default:
+	    throw new InternalError(); // bad coding
+	}
+    }
+
     /**
      * Add a proxy class.
      */
@@ -412,11 +755,156 @@ public abstract class ProxyCompiler
      * listeners.The return value is one of the
      * <code>RC_COMPILE_XXXXXXX</code> constants in this class.
      **/
-    synchronized public int compile(String className)
+    public int compile(String className)
+    {
+	return compileLocked(className,
+			     getSourceFile(className),
+			     getClassFile(className));
+    }
+
+    /**
+     * Returns the <code>ProxyCompileEvent</code> of the last failed
+     * compile of the given class, with its diagnostics, or
+     * <code>null</code> if the class has compiled since or never
+     * failed.  While its sourcefile keeps the content that failed,
+     * the class is not compiled again, and the last good version of
+     * it stays in use.
+     **/
+    public ProxyCompileEvent getLastFailure(String className)
     {
-	return compile(className,
-		       getSourceFile(className),
-		       getClassFile(className));
+	return (ProxyCompileEvent)failures.get(className);
+    }
+
+    /**
+     * Returns <code>true</code> if the sourcefile of the given class
+     * holds content that has failed to compile, and nothing has
+     * compiled since.
+     **/
+    boolean hasFailed(ProxyClass cls)
+    {
+	Resource sourceFile = cls.getSourceFile();
+	Long hash = fingerprints.hashOrNull(sourceFile);
+	return hash != null && fingerprints.hasFailed(sourceFile, hash.longValue());
+    }
+
+    /**
+     * Compiles the sourcefiles of the given <code>ProxyClass</code>
+     * instances, firing one <code>ProxyCompileEvent</code> per class.
+     * Classes that depend on one another are compiled together in
+     * one batch; independent batches are compiled concurrently by the
+     * compile workers (see <code>setCompileWorkers()</code>).
+     * Classes whose classfile is current are not compiled.  The
+     * return value maps each <code>ProxyClass</code> to an
+     * <code>Integer</code> holding one of the
+     * <code>RC_COMPILE_XXXXXXX</code> constants in this class.
+     **/
+    public Map compileAll(Collection classes)
+    {
+	return compileAll(classes, false);
+    }
+
+    /**
+     * Like <code>compileAll(Collection)</code>, but if
+     * <code>force</code> is <code>true</code> classes whose
+     * classfile is current are compiled as well.
+     **/
+    public Map compileAll(Collection classes, final boolean force)
+    {
+	int n = classes.size();
+	final ProxyClass[] pcs = (ProxyClass[])classes.toArray(new ProxyClass[n]);
+	final int[] rcs = new int[n];
+	List groups = pack(partition(pcs), getCompileWorkers());
+
+	// Hand all batches but the first to the workers, and compile
+	// the first in this thread meanwhile.
+	List futures = new ArrayList();
+	if (groups.size() > 1) {
+	    for (int g = 1; g < groups.size(); g++) {
+		final int[] group = (int[])groups.get(g);
+		futures.add(getWorkers().submit(new Runnable() {
+			public void run() {
+			    compile(pcs, group, rcs, force);
+			}
+		    }));
+	    }
+	    groups = groups.subList(0, 1);
+	}
+
+	Iterator i = groups.iterator();
+	while (i.hasNext())
+	    compile(pcs, (int[])i.next(), rcs, force);
+
+	i = futures.iterator();
+	while (i.hasNext())
+	    await((Future)i.next());
+
+	Map result = new HashMap();
+	for (int j = 0; j < n; j++)
+	    result.put(pcs[j], Integer.valueOf(rcs[j]));
+	return result;
+    }
+
+    /**
+     * Compiles every dirty <code>ProxyClass</code>, together with
+     * every loaded class that depends on one (see
+     * <code>getDependents()</code>), then hotswaps
+     * those that compiled, highest priority first (see
+     * <code>ProxyClass.getPriority()</code>).  Dirty classes that did
+     * not compile stay dirty.
+     **/
+    public void hotswapAll()
+    {
+	List dirty = new ArrayList();
+	synchronized (this) {
+	    Iterator i = proxyClasses.values().iterator();
+	    while (i.hasNext()) {
+		ProxyClass pc = (ProxyClass)i.next();
+		if (pc.dirty)
+		    dirty.add(pc);
+	    }
+	}
+
+	if (dirty.isEmpty())
+	    return;
+
+	dirty.addAll(getDependents(dirty));
+	for (int i = 0; i < dirty.size(); i++)
+	    ((ProxyClass)dirty.get(i)).count(false);
+	swap(byPriority(dirty));
+    }
+
+    /**
+     * Returns the loaded <code>ProxyClass</code> instances that
+     * depend, directly or through one another, on any of the given
+     * ones, not including the given ones.  A class depends on
+     * another if its classfile (or that of one of its nested
+     * classes) refers to it, as recorded when it was last loaded.
+     **/
+    synchronized public Collection getDependents(Collection classes)
+    {
+	Set names = new HashSet();
+	Iterator i = classes.iterator();
+	while (i.hasNext())
+	    names.add(((ProxyClass)i.next()).getName());
+
+	List result = new ArrayList();
+	boolean grown = true;
+	while (grown) {
+	    grown = false;
+	    i = proxyClasses.values().iterator();
+	    while (i.hasNext()) {
+		ProxyClass pc = (ProxyClass)i.next();
+		if (names.contains(pc.getName()))
+		    continue;
+		Set refs = (Set)dependencies.get(pc.getName());
+		if (refs == null || Collections.disjoint(refs, names))
+		    continue;
+		names.add(pc.getName());
+		result.add(pc);
+		grown = true;
+	    }
+	}
+	return result;
     }
 
     /**
@@ -425,11 +913,285 @@ public abstract class ProxyCompiler
      * registered listeners.  The return value is one of the
      * <code>RC_COMPILE_XXXXXXX</code> constants in this class.
      **/
-    synchronized int compile(String className, Resource sourceFile, Resource classFile)
+    int compile(String className, Resource sourceFile, Resource classFile)
     {
 	throw new UnsupportedOperationException();
     }
 
+    /**
+     * Compiles the given classes, returning one of the
+     * <code>RC_COMPILE_XXXXXXX</code> constants per class.  This
+     * implementation compiles them one at a time; subclasses that
+     * can compile several sourcefiles at once override it.  If
+     * <code>force</code> is <code>true</code>, classes whose
+     * classfile is current should be compiled anyway; this
+     * implementation cannot, and leaves them to report
+     * <code>RC_COMPILE_TRIVIAL</code>.
+     **/
+    int[] compile(String[] classNames, Resource[] sourceFiles, Resource[] classFiles, boolean force)
+    {
+	int[] rcs = new int[classNames.length];
+	for (int i = 0; i < classNames.length; i++)
+	    rcs[i] = compile(classNames[i], sourceFiles[i], classFiles[i]);
+	return rcs;
+    }
+
+    /**
+     * Compiles the given class while holding its compile lock, so
+     * that no two threads compile the same class at once.  Different
+     * classes compile concurrently.
+     **/
+    int compileLocked(String className, Resource sourceFile, Resource classFile)
+    {
+	return compileLocked(new String[]{ className },
+			     new Resource[]{ sourceFile },
+			     new Resource[]{ classFile },
+			     false)[0];
+    }
+
+    /**
+     * Compiles the given classes in one batch while holding their
+     * compile locks.  Classes the compile cache has (see
+     * <code>setCachepath()</code>) are taken from there instead, and
+     * those compiled are added to it.
+     *
+     * <P>
+     *
+     * A sourcefile that failed to compile is not compiled again with
+     * the same content (unless <code>force</code> is
+     * <code>true</code>); it fails at once, without an event, until
+     * its content changes or some other class compiles.  See
+     * <code>getLastFailure()</code>.
+     **/
+    int[] compileLocked(String[] classNames, Resource[] sourceFiles, Resource[] classFiles, boolean force)
+    {
+	String[] names = classNames.clone();
+	Arrays.sort(names);
+	lock(names);
+	try {
+	    int n = classNames.length;
+	    int[] rcs = new int[n];
+	    Long[] hashes = new Long[n];
+	    String[] keys = new String[n];
+	    KCompileCache cache = getCache();
+
+	    List rest = new ArrayList();
+	    for (int i = 0; i < n; i++) {
+		hashes[i] = fingerprints.hashOrNull(sourceFiles[i]);
+		if (!force && hashes[i] != null
+		    && fingerprints.hasFailed(sourceFiles[i], hashes[i].longValue())) {
+		    rcs[i] = RC_COMPILE_FAILURE;
+		    continue;
+		}
+		if (cache != null && hashes[i] != null
+		    && (force || filestat(sourceFiles[i], classFiles[i]) == RC_FILESTAT_CLASS_EXPIRED)) {
+		    keys[i] = getCacheKey(classNames[i], sourceFiles[i]);
+		    if (keys[i] != null && restore(cache, keys[i], classNames[i], sourceFiles[i])) {
+			rcs[i] = RC_COMPILE_SUCCESS;
+			continue;
+		    }
+		}
+		rest.add(Integer.valueOf(i));
+	    }
+
+	    if (!rest.isEmpty()) {
+		int m = rest.size();
+		String[] restNames = new String[m];
+		Resource[] restSources = new Resource[m];
+		Resource[] restClasses = new Resource[m];
+		for (int j = 0; j < m; j++) {
+		    int i = ((Integer)rest.get(j)).intValue();
+		    restNames[j] = classNames[i];
+		    restSources[j] = sourceFiles[i];
+		    restClasses[j] = classFiles[i];
+		}
+
+		int[] result = compile(restNames, restSources, restClasses, force);
+
+		for (int j = 0; j < m; j++) {
+		    int i = ((Integer)rest.get(j)).intValue();
+		    rcs[i] = result[j];
+		    if (rcs[i] == RC_COMPILE_SUCCESS && keys[i] != null)
+			store(cache, keys[i], classNames[i], sourceFiles[i], classFiles[i]);
+		}
+	    }
+
+	    for (int i = 0; i < n; i++) {
+		if (rcs[i] != RC_COMPILE_SUCCESS)
+		    continue;
+		if (hashes[i] != null)
+		    fingerprints.compiled(sourceFiles[i], hashes[i].longValue());
+		failures.remove(classNames[i]);
+	    }
+
+	    // Whatever failed for want of a class compiled here gets
+	    // another try.  A forced compile may have failed on account
+	    // of a dependency rather than its own content, so only
+	    // unforced failures are remembered.
+	    for (int i = 0; i < n; i++) {
+		if (rcs[i] == RC_COMPILE_SUCCESS) {
+		    fingerprints.forgetFailures();
+		    break;
+		}
+	    }
+	    if (!force) {
+		for (int j = 0; j < rest.size(); j++) {
+		    int i = ((Integer)rest.get(j)).intValue();
+		    if (rcs[i] == RC_COMPILE_FAILURE && hashes[i] != null)
+			fingerprints.failed(sourceFiles[i], hashes[i].longValue());
+		}
+	    }
+	    return rcs;
+	} finally {
+	    unlock(names);
+	}
+    }
+
+    /**
+     * Recompiles, by force, the loaded classes that depend on the
+     * given one, which has just been swapped, and swaps them in
+     * turn.  A dependent has to be reloaded even if its source has
+     * not changed: its classloader still holds the old definition of
+     * the class it depends on, and its classfile may have inlined
+     * constants from it.
+     **/
+    void hotswapDependents(ProxyClass cls)
+    {
+	Collection dependents = getDependents(Collections.singleton(cls));
+	if (!dependents.isEmpty())
+	    swap(dependents);
+    }
+
+    /**
+     * Records the classes referred to by the given classfile, which
+     * has just been defined under the given name.  The references of
+     * nested classes are merged into those of their top-level class.
+     **/
+    void setDependencies(String className, byte[] classfile)
+    {
+	Set refs;
+	try {
+	    refs = KDependencyScanner.scan(classfile);
+	} catch (IOException ex) {
+	    log("could not scan " + className + ": " + ex);
+	    return;
+	}
+
+	String top = KDependencyScanner.top(className);
+	if (!top.equals(className)) {
+	    refs.remove(top);
+	    Set old = (Set)dependencies.get(top);
+	    if (old != null)
+		refs.addAll(old);
+	}
+	dependencies.put(top, refs);
+    }
+
+    /**
+     * Queues the background swap of the given class and submits a
+     * task to the executor to run one queued swap.  Each task runs
+     * whichever queued class has the highest priority when it
+     * starts, rather than the one it was submitted for, so work
+     * that turns hot while waiting overtakes work nobody is waiting
+     * for.  Returns <code>false</code> if the executor would not
+     * take the task.
+     **/
+    boolean schedule(ProxyClass pc)
+    {
+	synchronized (pending) {
+	    pending.add(pc);
+	}
+
+	try {
+	    getExecutor().execute(new Runnable() {
+		    public void run() {
+			ProxyClass next = nextPending();
+			if (next != null)
+			    next.runScheduled();
+		    }
+		});
+	    return true;
+	} catch (RejectedExecutionException ex) {
+	    log("background hotswap rejected: " + ex);
+	    synchronized (pending) {
+		// Another task may have taken it meanwhile.
+		return !pending.remove(pc);
+	    }
+	}
+    }
+
+    /**
+     * Removes and returns the queued class having the highest
+     * priority, or <code>null</code> if there is none.
+     **/
+    ProxyClass nextPending()
+    {
+	synchronized (pending) {
+	    ProxyClass best = null;
+	    long max = -1;
+	    Iterator i = pending.iterator();
+	    while (i.hasNext()) {
+		ProxyClass pc = (ProxyClass)i.next();
+		long priority = pc.getPriority();
+		if (priority > max) {
+		    best = pc;
+		    max = priority;
+		}
+	    }
+	    if (best != null)
+		pending.remove(best);
+	    return best;
+	}
+    }
+
+    /**
+     * Returns the given <code>ProxyClass</code> instances ordered by
+     * descending priority, as it is when this is called.
+     **/
+    static List byPriority(Collection classes)
+    {
+	final Map priorities = new HashMap();
+	Iterator i = classes.iterator();
+	while (i.hasNext()) {
+	    ProxyClass pc = (ProxyClass)i.next();
+	    priorities.put(pc, Long.valueOf(pc.getPriority()));
+	}
+
+	List sorted = new ArrayList(classes);
+	Collections.sort(sorted, new Comparator() {
+		public int compare(Object a, Object b) {
+		    return ((Long)priorities.get(b)).compareTo((Long)priorities.get(a));
+		}
+	    });
+	return sorted;
+    }
+
+    /**
+     * Submits <code>hotswapAll()</code> to the executor, unless it
+     * is already waiting to run.
+     **/
+    void scheduleAll()
+    {
+	if (!batchScheduled.compareAndSet(false, true))
+	    return;
+
+	try {
+	    getExecutor().execute(new Runnable() {
+		    public void run() {
+			batchScheduled.set(false);
+			try {
+			    hotswapAll();
+			} catch (RuntimeException ex) {
+			    log("batch hotswap failed: " + ex);
+			}
+		    }
+		});
+	} catch (RejectedExecutionException ex) {
+	    batchScheduled.set(false);
+	    log("batch hotswap rejected: " + ex);
+	}
+    }
+
     /**
      * Returns the sourcefile <code>Resource</code> for the given
      * classname.  The location of the sourcecode is dependent upon
@@ -479,14 +1241,20 @@ public abstract class ProxyCompiler
 	b.append(className.replace('.' , File.separatorChar))
 	    .append(".class");
 
-	return new KFileResource(new File(b.toString()));
+	return newClassFile(className, new File(b.toString()));
     }
 
     /**
      * Returns the status of the sourcefile and classfile as one of
-     * the <code>RC_FILESTAT_XXX</code> constants in this class.
+     * the <code>RC_FILESTAT_XXX</code> constants in this class.  Once
+     * the class has been compiled by this compiler, the classfile is
+     * current as long as the content of the sourcefile hashes the
+     * same as it did then, whatever the times of last modification
+     * say.  Before that, the times of last modification decide; a
+     * classfile found current that way is taken to have been
+     * compiled from the sourcefile as it is.
      **/
-    synchronized int filestat(Resource sourceFile, Resource classFile)
+    int filestat(Resource sourceFile, Resource classFile)
     {
 	try {
 
@@ -497,9 +1265,17 @@ public abstract class ProxyCompiler
 	    if (!classFile.exists())
 		return RC_FILESTAT_CLASS_EXPIRED;
 
-	    return sourceFile.lastModified() > classFile.lastModified()
-		? RC_FILESTAT_CLASS_EXPIRED
-		: RC_FILESTAT_CLASS_CURRENT;
+	    Long compiled = fingerprints.getCompiled(sourceFile);
+	    if (compiled != null)
+		return fingerprints.hash(sourceFile) == compiled.longValue()
+		    ? RC_FILESTAT_CLASS_CURRENT
+		    : RC_FILESTAT_CLASS_EXPIRED;
+
+	    if (sourceFile.lastModified() > classFile.lastModified())
+		return RC_FILESTAT_CLASS_EXPIRED;
+
+	    fingerprints.compiled(sourceFile, fingerprints.hash(sourceFile));
+	    return RC_FILESTAT_CLASS_CURRENT;
 
 	} catch (IOException ioex) {
 
@@ -513,7 +1289,7 @@ public abstract class ProxyCompiler
      * Tries to load the given classname using an internal
      * classloader.
      **/
-    synchronized Class loadClass(String name) throws ClassNotFoundException
+    Class loadClass(String name) throws ClassNotFoundException
     {
 	return new KFileClassLoader(parent, this).loadClass(name);
     }
@@ -540,15 +1316,24 @@ public abstract class ProxyCompiler
 
     /**
      * Sends <code>ProxyRecompileEvent</code> notification to all
-     * listeners.
+     * listeners, and keeps the event as the last failure of its class
+     * if it reports one (see <code>getLastFailure()</code>).
+     * Listeners are called without holding this monitor, since
+     * compiles on other threads may be waiting for it.
      **/
-    synchronized protected void fire(ProxyCompileEvent evt)
+    protected void fire(ProxyCompileEvent evt)
     {
-	if (hasListeners()) {
-	    Iterator i = listeners.iterator();
-	    while (i.hasNext())
-		((ProxyEventListener)i.next()).notify(evt);
+	if (evt.getReturnCode() == RC_COMPILE_FAILURE)
+	    failures.put(evt.getClassName(), evt.detach());
+
+	Object[] ls;
+	synchronized (this) {
+	    if (!hasListeners())
+		return;
+	    ls = listeners.toArray();
 	}
+	for (int i = 0; i < ls.length; i++)
+	    ((ProxyEventListener)ls[i]).notify(evt);
     }
 
     /**
@@ -559,6 +1344,507 @@ public abstract class ProxyCompiler
 	return listeners != null && listeners.size() > 0;
     }
 
+    /**
+     * Sends <code>ProxyCompileOutputEvent</code> notification to all
+     * output listeners, without holding this monitor.
+     **/
+    protected void fireOutput(ProxyCompileOutputEvent evt)
+    {
+	Object[] ls;
+	synchronized (this) {
+	    if (!hasOutputListeners())
+		return;
+	    ls = outputListeners.toArray();
+	}
+	for (int i = 0; i < ls.length; i++)
+	    ((ProxyEventListener)ls[i]).notify(evt);
+    }
+
+    /**
+     * Returns <code>true</code> if there is at least one output
+     * listener.
+     **/
+    synchronized protected boolean hasOutputListeners()
+    {
+	return outputListeners != null && outputListeners.size() > 0;
+    }
+
+    /**
+     * Does the work of <code>warmUp()</code> until
+     * <code>System.nanoTime()</code> passes the given deadline.  This
+     * implementation does nothing; subclasses that run the compiler
+     * in this JVM override it.
+     **/
+    protected void warm(long deadline) throws Exception
+    {
+    }
+
+    /**
+     * Returns a description of this compiler and of everything other
+     * than the sourcefile itself that decides what it compiles a
+     * class to, used to key the compile cache, or <code>null</code>
+     * if the compiler cannot be identified, in which case nothing is
+     * cached.  Subclasses whose output depends on other settings, or
+     * which compile with another JDK than this JVM's, should add
+     * them.
+     **/
+    protected String getCompilerIdentity()
+    {
+	return getClass().getName()
+	    + '\n' + System.getProperty("java.vendor") + ' ' + System.getProperty("java.version")
+	    + '\n' + formatClasspath()
+	    + '\n' + getSourcepath()
+	    + '\n' + getOptions();
+    }
+
+    /**
+     * Returns what the given command prints when run with
+     * <code>-version</code> added, or <code>null</code> if it cannot
+     * be run or fails.  The output is remembered for each command,
+     * so each is run once.
+     **/
+    protected String getCommandVersion(List command)
+    {
+	synchronized (versions) {
+	    String version = (String)versions.get(command);
+	    if (version != null)
+		return version;
+
+	    List argv = new ArrayList(command);
+	    argv.add("-version");
+	    try {
+		Process p = new ProcessBuilder(argv).redirectErrorStream(true).start();
+		p.getOutputStream().close();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = p.getInputStream();
+		byte[] buf = new byte[1024];
+		for (int n; (n = in.read(buf)) >= 0; )
+		    out.write(buf, 0, n);
+		if (p.waitFor() != 0)
+		    return null;
+		version = out.toString().trim();
+	    } catch (IOException ioex) {
+		log("cannot run " + argv + ": " + ioex);
+		return null;
+	    } catch (InterruptedException iex) {
+		Thread.currentThread().interrupt();
+		return null;
+	    }
+
+	    versions.put(new ArrayList(command), version);
+	    return version;
+	}
+    }
+
+    /**
+     * Returns the classfiles of the given class and of its nested
+     * classes, keyed by classname, as the last compile left them.
+     * Nested classes are found by following references from the
+     * classfile of the class, so classfiles of nested classes that
+     * an older version of the source had and the current one does
+     * not are left out.
+     **/
+    protected Map readClassfiles(String className, Resource classFile) throws IOException
+    {
+	Map classfiles = new HashMap();
+	LinkedList todo = new LinkedList();
+	todo.add(className);
+	while (!todo.isEmpty()) {
+	    String name = (String)todo.removeFirst();
+	    if (classfiles.containsKey(name))
+		continue;
+	    byte[] bytes = readClassfile(name, classFile);
+	    if (bytes == null)
+		continue;
+	    classfiles.put(name, bytes);
+	    todo.addAll(KDependencyScanner.nested(bytes, className));
+	}
+	return classfiles;
+    }
+
+    /**
+     * Returns the classfile of the given class, compiled along with
+     * the given classfile of its top-level class, or
+     * <code>null</code> if there is none.  This implementation reads
+     * it from the directory of the given classfile.
+     **/
+    protected byte[] readClassfile(String className, Resource classFile) throws IOException
+    {
+	File file = classFile.toFile();
+	if (file == null || file.getParentFile() == null)
+	    return null;
+
+	File f = new File(file.getParentFile(), className.substring(className.lastIndexOf('.') + 1) + ".class");
+	return f.isFile() ? Files.readAllBytes(f.toPath()) : null;
+    }
+
+    /**
+     * Installs the given classfiles, keyed by classname, as if they
+     * had just been compiled from a sourcefile whose time of last
+     * modification was <code>lastModified</code>.  This
+     * implementation writes them to the destination path.
+     **/
+    protected void writeClassfiles(Map classfiles, long lastModified) throws IOException
+    {
+	Iterator i = classfiles.entrySet().iterator();
+	while (i.hasNext()) {
+	    Map.Entry e = (Map.Entry)i.next();
+	    File file = getClassFile((String)e.getKey()).toFile();
+	    File parent = file.getParentFile();
+	    if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+		throw new IOException("Cannot create " + parent);
+	    Files.write(file.toPath(), (byte[])e.getValue());
+	}
+    }
+
+    /**
+     * Creates the classfile <code>Resource</code> for the given
+     * classname at the given location under the destination path.
+     **/
+    protected Resource newClassFile(String className, File file)
+    {
+	return new KFileResource(file);
+    }
+
+    /**
+     * Creates the default background <code>Executor</code>.
+     **/
+    protected Executor newExecutor()
+    {
+	return Executors.newSingleThreadExecutor(newThreadFactory("hotswap-compiler"));
+    }
+
+    /**
+     * Returns the pool of compile workers, creating it on first use.
+     **/
+    synchronized protected ExecutorService getWorkers()
+    {
+	if (pool == null)
+	    pool = newWorkers();
+	return pool;
+    }
+
+    /**
+     * Creates the pool of compile workers: at most
+     * <code>getCompileWorkers()</code> threads, which die after a
+     * while of idleness.
+     **/
+    protected ExecutorService newWorkers()
+    {
+	ThreadPoolExecutor pool = new ThreadPoolExecutor
+	    (workers, workers, 30L, TimeUnit.SECONDS,
+	     new LinkedBlockingQueue(), newThreadFactory("hotswap-compile-worker"));
+	pool.allowCoreThreadTimeOut(true);
+	return pool;
+    }
+
+    /**
+     * Returns the threads that run compiles with a timeout, creating
+     * them on first use.  There is no bound, as an abandoned compile
+     * keeps its thread until javac gives up.
+     **/
+    synchronized protected ExecutorService getTimedCompiles()
+    {
+	if (timedCompiles == null)
+	    timedCompiles = Executors.newCachedThreadPool(newThreadFactory("hotswap-timed-compile"));
+	return timedCompiles;
+    }
+
+    /**
+     * Creates a factory of daemon threads having the given name and
+     * the compile priority.
+     **/
+    protected ThreadFactory newThreadFactory(final String name)
+    {
+	final int priority = getCompilePriority();
+	return new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, name);
+		    t.setDaemon(true);
+		    t.setPriority(priority);
+		    return t;
+		}
+	    };
+    }
+
+    /**
+     * Shuts down the pool of compile workers, if there is one, once
+     * it has done the compiles already handed to it.  The next use
+     * creates a new one.
+     **/
+    synchronized protected void shutdownWorkers()
+    {
+	if (pool != null)
+	    pool.shutdown();
+	pool = null;
+    }
+
+    /**
+     * Compiles the given group of classes and stores their return
+     * codes in <code>rcs</code>.
+     **/
+    protected void compile(ProxyClass[] pcs, int[] group, int[] rcs, boolean force)
+    {
+	int n = group.length;
+	String[] classNames = new String[n];
+	Resource[] sourceFiles = new Resource[n];
+	Resource[] classFiles = new Resource[n];
+
+	for (int i = 0; i < n; i++) {
+	    ProxyClass pc = pcs[group[i]];
+	    classNames[i] = pc.getName();
+	    sourceFiles[i] = pc.getSourceFile();
+	    classFiles[i] = pc.getClassFile();
+	}
+
+	int[] result = compileLocked(classNames, sourceFiles, classFiles, force);
+	for (int i = 0; i < n; i++)
+	    rcs[group[i]] = result[i];
+    }
+
+    /**
+     * Splits the given classes into groups that do not depend on one
+     * another, each an <code>int[]</code> of indices.  Classes that
+     * depend on each other in either direction, directly or through
+     * others in the given set, fall in the same group, so they are
+     * compiled in the same batch.
+     **/
+    protected List partition(ProxyClass[] pcs)
+    {
+	int n = pcs.length;
+	int[] root = new int[n];
+	for (int i = 0; i < n; i++)
+	    root[i] = i;
+
+	for (int i = 0; i < n; i++) {
+	    Set refs = (Set)dependencies.get(pcs[i].getName());
+	    if (refs == null)
+		continue;
+	    for (int j = 0; j < n; j++) {
+		if (i != j && refs.contains(pcs[j].getName()))
+		    root[find(root, i)] = find(root, j);
+	    }
+	}
+
+	Map groups = new HashMap();
+	for (int i = 0; i < n; i++) {
+	    Integer r = Integer.valueOf(find(root, i));
+	    List group = (List)groups.get(r);
+	    if (group == null)
+		groups.put(r, group = new ArrayList());
+	    group.add(Integer.valueOf(i));
+	}
+
+	List result = new ArrayList();
+	Iterator i = groups.values().iterator();
+	while (i.hasNext()) {
+	    List group = (List)i.next();
+	    int[] indices = new int[group.size()];
+	    for (int j = 0; j < indices.length; j++)
+		indices[j] = ((Integer)group.get(j)).intValue();
+	    result.add(indices);
+	}
+	return result;
+    }
+
+    /**
+     * Merges the given groups into at most <code>n</code> batches of
+     * about equal size, as one javac run over several groups costs
+     * less than one per group.
+     **/
+    protected static List pack(List groups, int n)
+    {
+	if (groups.size() <= n)
+	    return groups;
+
+	int[][] sorted = (int[][])groups.toArray(new int[groups.size()][]);
+	Arrays.sort(sorted, new Comparator() {
+		public int compare(Object a, Object b) {
+		    return ((int[])b).length - ((int[])a).length;
+		}
+	    });
+
+	// Largest first, each into the smallest batch so far.
+	int[][] batches = new int[n][0];
+	for (int g = 0; g < sorted.length; g++) {
+	    int min = 0;
+	    for (int b = 1; b < n; b++) {
+		if (batches[b].length < batches[min].length)
+		    min = b;
+	    }
+	    int[] batch = new int[batches[min].length + sorted[g].length];
+	    System.arraycopy(batches[min], 0, batch, 0, batches[min].length);
+	    System.arraycopy(sorted[g], 0, batch, batches[min].length, sorted[g].length);
+	    batches[min] = batch;
+	}
+	return Arrays.asList(batches);
+    }
+
+    private static int find(int[] root, int i)
+    {
+	while (root[i] != i)
+	    i = root[i] = root[root[i]];
+	return i;
+    }
+
+    /**
+     * Waits for the given compile to finish, rethrowing what it
+     * threw.
+     **/
+    protected static void await(Future future)
+    {
+	boolean interrupted = false;
+	try {
+	    while (true) {
+		try {
+		    future.get();
+		    return;
+		} catch (InterruptedException ex) {
+		    interrupted = true;
+		}
+	    }
+	} catch (ExecutionException ex) {
+	    Throwable cause = ex.getCause();
+	    if (cause instanceof RuntimeException)
+		throw (RuntimeException)cause;
+	    if (cause instanceof Error)
+		throw (Error)cause;
+	    throw new ProxyException(cause);
+	} finally {
+	    if (interrupted)
+		Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * Takes the compile locks of the given classnames, which must be
+     * sorted so that batches never wait on each other in a cycle.
+     **/
+    protected void lock(String[] classNames)
+    {
+	for (int i = 0; i < classNames.length; i++) {
+	    ReentrantLock lock = (ReentrantLock)compileLocks.get(classNames[i]);
+	    if (lock == null) {
+		ReentrantLock other = (ReentrantLock)compileLocks.putIfAbsent(classNames[i], lock = new ReentrantLock());
+		if (other != null)
+		    lock = other;
+	    }
+	    lock.lock();
+	}
+    }
+
+    protected void unlock(String[] classNames)
+    {
+	for (int i = classNames.length - 1; i >= 0; i--)
+	    ((ReentrantLock)compileLocks.get(classNames[i])).unlock();
+    }
+
+    /**
+     * Compiles the given classes in one batch, by force, and reloads
+     * each one whose classfile is now current.
+     **/
+    protected void swap(Collection classes)
+    {
+	Map rcs = compileAll(classes, true);
+
+	Iterator i = classes.iterator();
+	while (i.hasNext()) {
+	    ProxyClass pc = (ProxyClass)i.next();
+	    switch (((Integer)rcs.get(pc)).intValue()) {
+	    case RC_COMPILE_SUCCESS:
+	    case RC_COMPILE_TRIVIAL:
+		pc.reload();
+	    }
+	}
+    }
+
+    synchronized KCompileCache getCache()
+    {
+	return cache;
+    }
+
+    /**
+     * Returns the compile cache key of the given class as its
+     * sourcefile is now, or <code>null</code> if it cannot be read
+     * or the compiler cannot be identified.
+     **/
+    protected String getCacheKey(String className, Resource sourceFile)
+    {
+	String identity = getCompilerIdentity();
+	if (identity == null)
+	    return null;
+	try {
+	    return KCompileCache.key(className, KFileClassLoader.read(sourceFile), identity);
+	} catch (IOException ioex) {
+	    return null;
+	}
+    }
+
+    /**
+     * Installs the classfiles of the given class from the cache entry
+     * having the given key, if there is one and the sourcefiles it
+     * depends on still hash as they did.
+     **/
+    protected boolean restore(KCompileCache cache, String key, String className, Resource sourceFile)
+    {
+	KCompileCache.Entry entry = cache.get(key);
+	if (entry == null || entry.classfiles.isEmpty())
+	    return false;
+
+	Iterator i = entry.dependencies.entrySet().iterator();
+	while (i.hasNext()) {
+	    Map.Entry e = (Map.Entry)i.next();
+	    if (!e.getValue().equals(fingerprints.hashOrNull(getSourceFile((String)e.getKey()))))
+		return false;
+	}
+
+	try {
+	    writeClassfiles(entry.classfiles, sourceFile.lastModified());
+	} catch (IOException ioex) {
+	    log("could not restore " + className + " from the compile cache: " + ioex);
+	    return false;
+	}
+
+	if (hasListeners())
+	    fire(new ProxyCompileEvent(this, className, "<compile cache>", null, null, RC_COMPILE_SUCCESS));
+	return true;
+    }
+
+    /**
+     * Adds the classfiles of the given class, just compiled, to the
+     * cache under the given key, unless its sourcefile has changed
+     * since the key was taken.
+     **/
+    protected void store(KCompileCache cache, String key, String className, Resource sourceFile, Resource classFile)
+    {
+	try {
+	    KCompileCache.Entry entry = new KCompileCache.Entry();
+	    entry.classfiles.putAll(readClassfiles(className, classFile));
+	    if (entry.classfiles.isEmpty())
+		return;
+
+	    Set refs = new HashSet();
+	    Iterator i = entry.classfiles.values().iterator();
+	    while (i.hasNext())
+		refs.addAll(KDependencyScanner.scan((byte[])i.next()));
+	    refs.remove(className);
+
+	    i = refs.iterator();
+	    while (i.hasNext()) {
+		String name = (String)i.next();
+		Long hash = fingerprints.hashOrNull(getSourceFile(name));
+		if (hash != null)
+		    entry.dependencies.put(name, hash);
+	    }
+
+	    if (key.equals(getCacheKey(className, sourceFile)))
+		cache.put(key, entry);
+
+	} catch (IOException ioex) {
+	    log("could not add " + className + " to the compile cache: " + ioex);
+	}
+    }
+
     protected void log(String msg) {
         System.out.println("["+this.getClass().getName()+"] " + msg);
     }
@@ -573,10 +1859,28 @@ public abstract class ProxyCompiler
     protected List cps;		// classpaths
     protected List opts;	// options
     protected List listeners;	// event listeners
+    protected List outputListeners; // compiler output listeners
     protected String dst;	// code destination
     protected Object sourcepath; // the sourcepath
     protected ClassLoader parent; // the model classloader
     protected ProxyClassMonitor monitor; // checks if classes need recompiling
+    protected int strategy;	// one of PROXY_STRATEGY_XXX
+    protected long quietPeriod;	// millis, for new ProxyClasses
+    protected long minSwapInterval; // millis, for new ProxyClasses
+    protected Executor executor; // runs background hotswaps
+    protected ExecutorService pool; // compile workers
+    protected ExecutorService timedCompiles; // see getTimedCompiles()
+    protected int workers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    protected int priority = Thread.NORM_PRIORITY; // of the compile threads
+    protected long timeout;	// millis per compile, 0 for none
+    protected final ConcurrentHashMap compileLocks = new ConcurrentHashMap(); // className -> ReentrantLock
+    final KFingerprints fingerprints = new KFingerprints(); // content hashes of sourcefiles
+    protected final Map versions = new HashMap(); // command -> its -version output
+    protected final Map failures = new ConcurrentHashMap(); // className -> ProxyCompileEvent of the last failure
+    KCompileCache cache;	// persistent compile cache, if any
+    protected final AtomicBoolean batchScheduled = new AtomicBoolean(); // see scheduleAll()
+    protected final Set pending = new LinkedHashSet(); // ProxyClasses queued by schedule()
+    protected final Map dependencies = new ConcurrentHashMap(); // className -> Set of classNames referred to
 
     /**
      * Abstraction of a <code>File</code>, <code>URL</code>, or other
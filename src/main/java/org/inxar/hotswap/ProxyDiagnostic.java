@@ -0,0 +1,195 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+/**
+ * A <code>ProxyDiagnostic</code> is one message from a compiler: an
+ * error, warning or note, with the sourcefile and position it refers
+ * to when there is one.  Compilers that can say so hand them out
+ * through <code>ProxyCompileOutputEvent</code>s as they are produced,
+ * and attach all of them to the <code>ProxyCompileEvent</code> for
+ * the compile.  Subclasses may work out the message and
+ * <code>toString()</code> only when asked.
+**/
+public class ProxyDiagnostic
+{
+    /**
+     * Kind of a diagnostic that fits none of the others.
+    **/
+    public static final int KIND_OTHER = 0;
+
+    /**
+     * Kind of a diagnostic that stops the compile from succeeding.
+    **/
+    public static final int KIND_ERROR = 1;
+
+    /**
+     * Kind of a diagnostic about a problem that does not stop the
+     * compile.
+    **/
+    public static final int KIND_WARNING = 2;
+
+    /**
+     * Kind of a warning that the language requires the compiler to
+     * report.
+    **/
+    public static final int KIND_MANDATORY_WARNING = 3;
+
+    /**
+     * Kind of an informative diagnostic.
+    **/
+    public static final int KIND_NOTE = 4;
+
+    /**
+     * Value of <code>getLine()</code> and <code>getColumn()</code>
+     * when there is no position.
+    **/
+    public static final long NOPOS = -1L;
+
+    /**
+     * Flexible subclass constructor.
+    **/
+    protected ProxyDiagnostic()
+    {
+    }
+
+    /**
+     * Standard constructor.  The source, code and message may be
+     * <code>null</code>; the line and column may be
+     * <code>NOPOS</code>.
+    **/
+    public ProxyDiagnostic(int kind,
+			   String source,
+			   long line,
+			   long column,
+			   String code,
+			   String message)
+    {
+	this.kind = kind;
+	this.source = source;
+	this.line = line;
+	this.column = column;
+	this.code = code;
+	this.message = message;
+    }
+
+    /**
+     * Returns the diagnostic as a compiler would print it, for
+     * example "<code>Foo.java:12: error: ';' expected</code>".
+    **/
+    public String toString()
+    {
+	StringBuffer b = new StringBuffer();
+	String source = getSource();
+	if (source != null) {
+	    b.append(source);
+	    if (getLine() != NOPOS)
+		b.append(':').append(getLine());
+	    b.append(": ");
+	}
+	b.append(getKindName(getKind())).append(": ").append(getMessage());
+	return b.toString();
+    }
+
+    /**
+     * Returns one of the <code>KIND_XXX</code> constants.
+    **/
+    public int getKind()
+    {
+	return kind;
+    }
+
+    /**
+     * Returns <code>true</code> if this is an error.
+    **/
+    public boolean isError()
+    {
+	return getKind() == KIND_ERROR;
+    }
+
+    /**
+     * Returns the name of the sourcefile the diagnostic refers to or
+     * <code>null</code> if none.
+    **/
+    public String getSource()
+    {
+	return source;
+    }
+
+    /**
+     * Returns the line number, starting at 1, or <code>NOPOS</code>.
+    **/
+    public long getLine()
+    {
+	return line;
+    }
+
+    /**
+     * Returns the column number, starting at 1, or
+     * <code>NOPOS</code>.
+    **/
+    public long getColumn()
+    {
+	return column;
+    }
+
+    /**
+     * Returns the compiler's code for the kind of problem, or
+     * <code>null</code> if it did not give one.
+    **/
+    public String getCode()
+    {
+	return code;
+    }
+
+    /**
+     * Returns the message, without the sourcefile and position.
+    **/
+    public String getMessage()
+    {
+	return message;
+    }
+
+    /**
+     * Returns the name of the given kind as compilers print it.
+    **/
+    public static String getKindName(int kind)
+    {
+	switch (kind) {
+	case KIND_ERROR:
+	    return "error";
+	case KIND_WARNING:
+	case KIND_MANDATORY_WARNING:
+	    return "warning";
+	case KIND_NOTE:
+	    return "note";
+	default:
+	    return "diagnostic";
+	}
+    }
+
+    protected int kind;
+    protected String source;
+    protected long line = NOPOS;
+    protected long column = NOPOS;
+    protected String code;
+    protected String message;
+}
@@ -42,9 +42,10 @@ import java.lang.reflect.*;
  *  {
  *      preInvoke(src, method, args);
  *
- *      Object result = method.getName().startsWith("hotswap") 
- *          ? method.invoke(proxy,                       args)
- *          : method.invoke(proxy.hotswap_getInstance(), args);
+ *      // Proxy methods go to the proxy, all others to
+ *      // proxy.hotswap_getInstance(), through a MethodHandle
+ *      // resolved when the proxy was created.
+ *      Object result = table.invoke(proxy, method, args);
  *
  *      postInvoke(src, method, args, result);
  *
@@ -80,9 +81,9 @@ public class ProxyInvocationHandler implements InvocationHandler
     {
 	preInvoke(src, method, args);
 
-	Object result = method.getName().startsWith("hotswap") 
-	    ? method.invoke(proxy,                       args)
-	    : method.invoke(proxy.hotswap_getInstance(), args);
+	Object result = table != null
+	    ? table.invoke(proxy, method, args)
+	    : reflect(method, args);
 
 	postInvoke(src, method, args, result);
 	
@@ -99,6 +100,12 @@ public class ProxyInvocationHandler implements InvocationHandler
     public void setProxy(Proxy proxy)
     {
 	this.proxy = proxy;
+	this.current = proxy instanceof KProxy ? (KProxy)proxy : null;
+
+	ProxyClass cls = proxy.hotswap_getProxyClass();
+	this.table = cls instanceof KJDK13ProxyClass
+	    ? ((KJDK13ProxyClass)cls).getDispatchTable()
+	    : null;
     }
 
     /**
@@ -110,11 +117,16 @@ public class ProxyInvocationHandler implements InvocationHandler
     }
 
     /**
-     * Called before method dispatch to the internal proxy.
+     * Called before method dispatch to the internal proxy.  Unless
+     * the parent <code>ProxyClass</code> has changed since the last
+     * call, this costs a single stamp comparison.
     **/
     public void preInvoke(Object src, Method method, Object[] args)
     {
-	proxy.hotswap();
+	if (current != null)
+	    current.hotswap_current();
+	else
+	    proxy.hotswap();
     }
 
     /**
@@ -124,9 +136,29 @@ public class ProxyInvocationHandler implements InvocationHandler
     {
     }
 
+    /**
+     * Fallback dispatch used when no dispatch table is available.
+    **/
+    protected Object reflect(Method method, Object[] args) throws Throwable
+    {
+	try {
+	    return method.getName().startsWith("hotswap")
+		? method.invoke(proxy,                       args)
+		: method.invoke(proxy.hotswap_getInstance(), args);
+	} catch (InvocationTargetException itex) {
+	    throw itex.getTargetException();
+	}
+    }
+
     // ================================
     // Instance Fields 
     // ================================
 
     protected Proxy proxy;
+
+    // Dispatch table shared by all proxies of the same ProxyClass.
+    KDispatchTable table;
+
+    // The proxy as a KProxy, for the stamp fast path.
+    KProxy current;
 }
@@ -0,0 +1,241 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Public base class of generated proxies.  A <code>ProxyClass</code>
+ * created with the <code>PROXY_STRATEGY_GENERATED</code> strategy
+ * defines a concrete subclass of <code>ProxyStub</code> that also
+ * implements the proxied interfaces; each interface method is
+ * compiled to a direct <code>invokeinterface</code> on the current
+ * object instance, without argument arrays, boxing, or an
+ * <code>InvocationHandler</code>.
+ *
+ * <P>
+ *
+ * The generated method bodies obtain the object instance through an
+ * <code>invokedynamic</code> instruction linked to the call site of
+ * the parent <code>ProxyClass</code> (see
+ * <code>ProxyClass.getCallSite()</code>), so between swaps the JIT
+ * can inline straight through to the target.
+ *
+ * <P>
+ *
+ * The <code>Proxy</code> methods are forwarded to the internal
+ * <code>Proxy</code> instance.  As with dynamic proxy classes, the
+ * <code>equals</code>, <code>hashCode</code> and
+ * <code>toString</code> methods are forwarded to the current object
+ * instance.
+ *
+ * <P>
+ *
+ * This class is public only so that generated subclasses, which live
+ * in their own <code>ClassLoader</code>, can extend it; it is not
+ * intended to be subclassed by end-user code.
+**/
+public abstract class ProxyStub implements Proxy
+{
+    // ================================
+    // Constructors
+    // ================================
+
+    /**
+     * Constructs a stub forwarding to the given <code>Proxy</code>,
+     * which must have been created by this library.
+    **/
+    protected ProxyStub(Proxy proxy)
+    {
+	if (!(proxy instanceof KProxy))
+	    throw new IllegalArgumentException
+		("ProxyStub requires a library-created Proxy.");
+	this.proxy = (KProxy)proxy;
+    }
+
+    // ================================
+    // TEHC Methods
+    // ================================
+
+    public String toString()
+    {
+	return hotswap_target().toString();
+    }
+
+    public int hashCode()
+    {
+	return hotswap_target().hashCode();
+    }
+
+    public boolean equals(Object other)
+    {
+	return hotswap_target().equals(other);
+    }
+
+    // ================================
+    // Proxy Methods
+    // ================================
+
+    public ProxyClass hotswap_getProxyClass()
+    {
+	return proxy.hotswap_getProxyClass();
+    }
+
+    public Object hotswap()
+    {
+	return proxy.hotswap();
+    }
+
+    public Object hotswap_getInstance()
+    {
+	return proxy.hotswap_getInstance();
+    }
+
+    public Boolean hotswap_hasChanged()
+    {
+	return proxy.hotswap_hasChanged();
+    }
+
+    public void hotswap_enqueue()
+    {
+	proxy.hotswap_enqueue();
+    }
+
+    public void hotswap_dequeue()
+    {
+	proxy.hotswap_dequeue();
+    }
+
+    public boolean hotswap_isEnqueued()
+    {
+	return proxy.hotswap_isEnqueued();
+    }
+
+    public boolean hotswap_isAutoEnqueue()
+    {
+	return proxy.hotswap_isAutoEnqueue();
+    }
+
+    public void hotswap_isAutoEnqueue(boolean isAutoEnqueue)
+    {
+	proxy.hotswap_isAutoEnqueue(isAutoEnqueue);
+    }
+
+    public void hotswap_release()
+    {
+	proxy.hotswap_release();
+    }
+
+    public Object[] hotswap_getConstructorArguments()
+    {
+	return proxy.hotswap_getConstructorArguments();
+    }
+
+    public Class[] hotswap_getConstructorParameters()
+    {
+	return proxy.hotswap_getConstructorParameters();
+    }
+
+    public void hotswap_setConstructorArguments(Object[] args)
+    {
+	proxy.hotswap_setConstructorArguments(args);
+    }
+
+    public void hotswap_setConstructorParameters(Class[] params)
+    {
+	proxy.hotswap_setConstructorParameters(params);
+    }
+
+    public void hotswap_addObjectSwapListener(ProxyEventListener l)
+    {
+	proxy.hotswap_addObjectSwapListener(l);
+    }
+
+    public void hotswap_removeObjectSwapListener(ProxyEventListener l)
+    {
+	proxy.hotswap_removeObjectSwapListener(l);
+    }
+
+    // ================================
+    // Protected Methods
+    // ================================
+
+    /**
+     * Returns the current object instance, hotswapping first if the
+     * parent <code>ProxyClass</code> has changed.
+    **/
+    protected final Object hotswap_target()
+    {
+	return proxy.hotswap_current();
+    }
+
+    /**
+     * Returns the object instance for a token obtained from the call
+     * site: either the instance itself or, if the
+     * <code>ProxyClass</code> is draining, the generation it belongs
+     * to.
+    **/
+    protected static final Object hotswap_unwrap(Object token)
+    {
+	return token instanceof KProxy.Epoch
+	    ? ((KProxy.Epoch)token).obj
+	    : token;
+    }
+
+    /**
+     * Signals that the call that obtained the given token from the
+     * call site has finished.
+    **/
+    protected static final void hotswap_exit(Object token)
+    {
+	if (token instanceof KProxy.Epoch)
+	    ((KProxy.Epoch)token).exit();
+    }
+
+    // ================================
+    // Class Methods
+    // ================================
+
+    /**
+     * Bootstrap method of the <code>invokedynamic</code>
+     * instructions in generated stubs; links them to the call site
+     * of the <code>ProxyClass</code> that generated the stub.
+    **/
+    public static CallSite hotswap_bootstrap(MethodHandles.Lookup lookup,
+					     String name,
+					     MethodType type)
+    {
+	ClassLoader loader = lookup.lookupClass().getClassLoader();
+	if (!(loader instanceof KStubProxyClass.Loader))
+	    throw new ProxyException
+		(lookup.lookupClass().getName()+" is not a generated proxy stub.");
+
+	return ((KStubProxyClass.Loader)loader).cls.getCallSite();
+    }
+
+    // ================================
+    // Instance Fields
+    // ================================
+
+    final KProxy proxy;
+}
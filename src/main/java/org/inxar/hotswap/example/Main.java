@@ -79,6 +79,10 @@ public class Main
         compiler.setSourcepath(sourcepath);
         compiler.getClasspath().add(classpath);
 
+        // -Dorg.inxar.hotswap.warmup=<millis> warms the compiler up
+        // in the background while the rest is set up.
+        compiler.warmUp();
+
         // ================================================================
 	// Setup proxyclass
         //
@@ -0,0 +1,138 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import junit.framework.TestCase;
+
+/**
+ * Base class of the tests that compile and load sources: each test
+ * gets a scratch directory holding a sourcepath and a destination
+ * path, deleted again when the test is done.
+**/
+public abstract class HotswapTestCase extends TestCase
+{
+    protected void setUp() throws Exception
+    {
+	dir = File.createTempFile("hotswap", "");
+	dir.delete();
+	if (!dir.mkdirs())
+	    throw new IOException("Cannot create " + dir);
+	src = new File(dir, "src");
+	out = new File(dir, "out");
+	src.mkdirs();
+	out.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+	delete(dir);
+    }
+
+    // ================================
+    // Protected Methods
+    // ================================
+
+    /**
+     * Configures the given compiler to compile from the scratch
+     * sourcepath into the scratch destination path, against the
+     * classes of the tests (and JUnit, which interfaces nested in a
+     * test refer to through their enclosing class).
+    **/
+    protected ProxyCompiler configure(ProxyCompiler compiler)
+    {
+	compiler.setSourcepath(src.getPath());
+	compiler.setDestinationpath(out.getPath());
+	compiler.getClasspath().add(location(getClass()));
+	compiler.getClasspath().add(location(TestCase.class));
+	return compiler;
+    }
+
+    /**
+     * Writes the given sourcefile of the given class under the
+     * scratch sourcepath, moving its time of last modification past
+     * that of any classfile compiled from an earlier version.
+    **/
+    protected File writeSource(String className, String text) throws IOException
+    {
+	File file = new File(src, className.replace('.', File.separatorChar) + ".java");
+	boolean existed = file.exists();
+	write(file, text.getBytes("UTF-8"));
+	if (existed)
+	    file.setLastModified(System.currentTimeMillis() + 2000L);
+	return file;
+    }
+
+    /**
+     * Writes an executable shell script of the given name in the
+     * scratch directory, standing in for a JDK command.
+    **/
+    protected File writeScript(String name, String text) throws IOException
+    {
+	File file = new File(dir, name);
+	write(file, ("#!/bin/sh\n" + text + "\n").getBytes("UTF-8"));
+	file.setExecutable(true);
+	return file;
+    }
+
+    /**
+     * Returns the classpath entry the given class was loaded from.
+    **/
+    protected static String location(Class cls)
+    {
+	try {
+	    return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+	} catch (Exception ex) {
+	    throw new IllegalStateException("Cannot locate " + cls + ": " + ex);
+	}
+    }
+
+    protected static void write(File file, byte[] bytes) throws IOException
+    {
+	file.getParentFile().mkdirs();
+	OutputStream os = new FileOutputStream(file);
+	try {
+	    os.write(bytes);
+	} finally {
+	    os.close();
+	}
+    }
+
+    protected static void delete(File file)
+    {
+	File[] files = file.listFiles();
+	if (files != null)
+	    for (int i = 0; i < files.length; i++)
+		delete(files[i]);
+	file.delete();
+    }
+
+    // ================================
+    // Fields
+    // ================================
+
+    protected File dir;		// scratch directory
+    protected File src;		// sourcepath
+    protected File out;		// destination path
+}
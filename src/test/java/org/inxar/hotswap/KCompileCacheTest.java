@@ -0,0 +1,244 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the entries of <code>KCompileCache</code> and the
+ * classfiles the compilers put in them.
+**/
+public class KCompileCacheTest extends HotswapTestCase
+{
+    public void testKeyCoversNameSourceAndIdentity() throws Exception
+    {
+	byte[] source = "class A {}".getBytes("UTF-8");
+	String key = KCompileCache.key("A", source, "id");
+	assertEquals(64, key.length());
+	assertEquals(key, KCompileCache.key("A", source, "id"));
+	assertFalse(key.equals(KCompileCache.key("B", source, "id")));
+	assertFalse(key.equals(KCompileCache.key("A", source, "id2")));
+	assertFalse(key.equals(KCompileCache.key("A", "class A { }".getBytes("UTF-8"), "id")));
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+	KCompileCache cache = new KCompileCache(new File(dir, "cache"));
+	String key = KCompileCache.key("p.A", new byte[0], "id");
+	assertNull(cache.get(key));
+
+	KCompileCache.Entry entry = new KCompileCache.Entry();
+	entry.classfiles.put("p.A", new byte[]{ 1, 2, 3 });
+	entry.classfiles.put("p.A$1", new byte[]{ 4 });
+	entry.dependencies.put("p.B", Long.valueOf(42));
+	cache.put(key, entry);
+
+	KCompileCache.Entry read = cache.get(key);
+	assertEquals(entry.dependencies, read.dependencies);
+	assertEquals(2, read.classfiles.size());
+	assertTrue(Arrays.equals(new byte[]{ 1, 2, 3 }, (byte[])read.classfiles.get("p.A")));
+	assertTrue(Arrays.equals(new byte[]{ 4 }, (byte[])read.classfiles.get("p.A$1")));
+
+	// Nothing is left behind by the publish.
+	File[] files = cache.getFile(key).getParentFile().listFiles();
+	assertEquals(1, files.length);
+    }
+
+    public void testCorruptEntriesAreMisses() throws Exception
+    {
+	KCompileCache cache = new KCompileCache(new File(dir, "cache"));
+	String key = KCompileCache.key("p.A", new byte[0], "id");
+	KCompileCache.Entry entry = new KCompileCache.Entry();
+	entry.classfiles.put("p.A", new byte[100]);
+	cache.put(key, entry);
+
+	File file = cache.getFile(key);
+	byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+
+	write(file, Arrays.copyOf(bytes, bytes.length - 10));
+	assertNull("truncated", cache.get(key));
+
+	bytes[0] ^= 0xff;
+	write(file, bytes);
+	assertNull("bad magic", cache.get(key));
+    }
+
+    /**
+     * An entry written with another layout under the same magic, or
+     * damaged on disk, can hold any length; it is a miss rather than
+     * an error.
+    **/
+    public void testBadLengthsAreMisses() throws Exception
+    {
+	KCompileCache cache = new KCompileCache(new File(dir, "cache"));
+	String key = KCompileCache.key("p.A", new byte[0], "id");
+	KCompileCache.Entry entry = new KCompileCache.Entry();
+	entry.classfiles.put("p.A", new byte[100]);
+	cache.put(key, entry);
+
+	File file = cache.getFile(key);
+	byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+
+	// magic, no dependencies, one classfile, "p.A", its length
+	int at = 4 + 4 + 4 + 2 + 3;
+	assertEquals(100, ByteBuffer.wrap(bytes, at, 4).getInt());
+
+	int[] lengths = { -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 101 };
+	for (int i = 0; i < lengths.length; i++) {
+	    ByteBuffer.wrap(bytes, at, 4).putInt(lengths[i]);
+	    write(file, bytes);
+	    assertNull("length " + lengths[i], cache.get(key));
+	}
+
+	// The bytes as written still read.
+	ByteBuffer.wrap(bytes, at, 4).putInt(100);
+	write(file, bytes);
+	assertNotNull(cache.get(key));
+    }
+
+    /**
+     * Readers racing a writer that keeps replacing one entry see
+     * either a whole old entry or a whole new one.
+    **/
+    public void testReadersNeverSeeTornEntries() throws Exception
+    {
+	final KCompileCache cache = new KCompileCache(new File(dir, "cache"));
+	final String key = KCompileCache.key("p.A", new byte[0], "id");
+	cache.put(key, entry(0));
+
+	final AtomicBoolean done = new AtomicBoolean();
+	final AtomicReference failure = new AtomicReference();
+	Thread[] readers = new Thread[4];
+	for (int t = 0; t < readers.length; t++) {
+	    readers[t] = new Thread() {
+		    public void run() {
+			while (!done.get()) {
+			    KCompileCache.Entry e = cache.get(key);
+			    String problem = e == null ? "missing entry" : check(e);
+			    if (problem != null) {
+				failure.compareAndSet(null, problem);
+				return;
+			    }
+			}
+		    }
+		};
+	    readers[t].start();
+	}
+
+	try {
+	    for (int g = 1; g <= 200; g++)
+		cache.put(key, entry(g));
+	} finally {
+	    done.set(true);
+	    for (int t = 0; t < readers.length; t++)
+		readers[t].join();
+	}
+	assertNull((String)failure.get(), failure.get());
+    }
+
+    /**
+     * The classfiles put in a cache entry are those of the current
+     * version of the source, without nested classes that only an
+     * older version had.
+    **/
+    public void testStaleNestedClassfilesAreLeftOut() throws Exception
+    {
+	KJavaxCompiler compiler = (KJavaxCompiler)configure(new KJavaxCompiler(getClass().getClassLoader()));
+
+	writeSource("p.Foo",
+		    "package p;\n"
+		    + "public class Foo {\n"
+		    + "    Object a = new Object() {};\n"
+		    + "    Object b = new Object() {};\n"
+		    + "    static class Inner { Object c = new Object() {}; }\n"
+		    + "}\n");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.Foo"));
+	assertTrue(new File(out, "p/Foo$2.class").exists());
+
+	writeSource("p.Foo",
+		    "package p;\n"
+		    + "public class Foo {\n"
+		    + "    Object a = new Object() {};\n"
+		    + "    static class Inner { Object c = new Object() {}; }\n"
+		    + "}\n");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.Foo"));
+	assertTrue("left over on disk", new File(out, "p/Foo$2.class").exists());
+
+	ProxyCompiler.Resource classFile = compiler.getClassFile("p.Foo");
+	Map expected = names("p.Foo", "p.Foo$1", "p.Foo$Inner", "p.Foo$Inner$1");
+
+	// From memory...
+	assertEquals(expected.keySet(), compiler.readClassfiles("p.Foo", classFile).keySet());
+
+	// ...and from the destination directory.
+	ProxyCompiler files = configure(new KJavacCompiler(getClass().getClassLoader()));
+	assertEquals(expected.keySet(), files.readClassfiles("p.Foo", files.getClassFile("p.Foo")).keySet());
+    }
+
+    // ================================
+    // Private Methods
+    // ================================
+
+    private static Map names(String... names)
+    {
+	Map m = new java.util.HashMap();
+	for (int i = 0; i < names.length; i++)
+	    m.put(names[i], null);
+	return m;
+    }
+
+    /**
+     * Returns an entry of generation <code>g</code>: g + 1 classfiles
+     * of g + 1 bytes each, all holding g.
+    **/
+    private static KCompileCache.Entry entry(int g)
+    {
+	KCompileCache.Entry e = new KCompileCache.Entry();
+	for (int i = 0; i <= g; i++) {
+	    byte[] b = new byte[g + 1];
+	    Arrays.fill(b, (byte)g);
+	    e.classfiles.put("p.A$" + i, b);
+	}
+	e.dependencies.put("p.B", Long.valueOf(g));
+	return e;
+    }
+
+    private static String check(KCompileCache.Entry e)
+    {
+	int g = ((Long)e.dependencies.get("p.B")).intValue();
+	if (e.classfiles.size() != g + 1)
+	    return "generation " + g + " has " + e.classfiles.size() + " classfiles";
+	for (Object o : e.classfiles.values()) {
+	    byte[] b = (byte[])o;
+	    if (b.length != g + 1)
+		return "generation " + g + " has a classfile of " + b.length + " bytes";
+	    for (int i = 0; i < b.length; i++)
+		if (b[i] != (byte)g)
+		    return "generation " + g + " has a byte of generation " + b[i];
+	}
+	return null;
+    }
+}
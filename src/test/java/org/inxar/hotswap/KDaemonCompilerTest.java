@@ -0,0 +1,178 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a <code>KCompileDaemon</code> on localhost through a
+ * <code>KDaemonCompiler</code> and compiles with it.
+**/
+public class KDaemonCompilerTest extends HotswapTestCase
+{
+    protected void setUp() throws Exception
+    {
+	super.setUp();
+	compiler = (KDaemonCompiler)configure(new KDaemonCompiler(getClass().getClassLoader()));
+    }
+
+    protected void tearDown() throws Exception
+    {
+	compiler.shutdown();
+	super.tearDown();
+    }
+
+    public void testCompilesGoodAndBrokenSources() throws Exception
+    {
+	writeSource("p.Good", "package p; public class Good { int f() { return 1; } }");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.Good"));
+	assertTrue(new File(out, "p/Good.class").isFile());
+	assertNull(compiler.getLastFailure("p.Good"));
+
+	writeSource("p.Bad", "package p;\npublic class Bad { int f() { return ; } }");
+	assertEquals(ProxyCompiler.RC_COMPILE_FAILURE, compiler.compile("p.Bad"));
+	assertFalse(new File(out, "p/Bad.class").exists());
+
+	ProxyCompileEvent failure = compiler.getLastFailure("p.Bad");
+	assertNotNull(failure);
+	ProxyDiagnostic d = (ProxyDiagnostic)failure.getDiagnostics().get(0);
+	assertTrue(d.isError());
+	assertEquals(2, d.getLine());
+    }
+
+    public void testKilledDaemonIsRestarted() throws Exception
+    {
+	writeSource("p.A", "package p; public class A {}");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.A"));
+	KDaemonCompiler.Daemon first = compiler.daemon;
+	assertTrue(first.process.isAlive());
+
+	first.process.destroyForcibly().waitFor();
+
+	writeSource("p.B", "package p; public class B {}");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.B"));
+	assertNotSame(first, compiler.daemon);
+	assertTrue(compiler.daemon.process.isAlive());
+    }
+
+    /**
+     * A daemon that no longer answers on its port, though its
+     * process is alive, is replaced and the request sent again.
+    **/
+    public void testUnreachableDaemonIsRestarted() throws Exception
+    {
+	writeSource("p.A", "package p; public class A {}");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.A"));
+	KDaemonCompiler.Daemon first = compiler.daemon;
+
+	ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+	int port = closed.getLocalPort();
+	closed.close();
+	synchronized (compiler) {
+	    compiler.daemon = new KDaemonCompiler.Daemon(first.process, port, first.token);
+	}
+
+	writeSource("p.B", "package p; public class B {}");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.B"));
+	assertTrue(new File(out, "p/B.class").isFile());
+	assertTrue(first.process.waitFor(5, TimeUnit.SECONDS));
+	assertTrue(compiler.daemon.process.isAlive());
+	assertTrue(compiler.daemon.port != port);
+    }
+
+    /**
+     * An error the daemon reports itself fails the compile without
+     * restarting the daemon or sending the request again.
+    **/
+    public void testDaemonErrorDoesNotRestart() throws Exception
+    {
+	writeSource("p.A", "package p; public class A {}");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.A"));
+	KDaemonCompiler.Daemon first = compiler.daemon;
+
+	final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+	final int[] requests = new int[1];
+	Thread stub = new Thread() {
+		public void run() {
+		    try {
+			while (true) {
+			    Socket s = server.accept();
+			    synchronized (requests) {
+				requests[0]++;
+			    }
+			    DataOutputStream out = new DataOutputStream(s.getOutputStream());
+			    out.writeInt(KCompileDaemon.STATUS_ERROR);
+			    KCompileDaemon.writeString(out, "java.lang.IllegalStateException: stub");
+			    out.flush();
+			    s.shutdownOutput();
+			    s.getInputStream().skip(Long.MAX_VALUE);
+			    s.close();
+			}
+		    } catch (IOException ioex) {
+			// Closed by the test.
+		    }
+		}
+	    };
+	stub.setDaemon(true);
+	stub.start();
+
+	KDaemonCompiler.Daemon fake = new KDaemonCompiler.Daemon(first.process, server.getLocalPort(), first.token);
+	synchronized (compiler) {
+	    compiler.daemon = fake;
+	}
+	try {
+	    writeSource("p.B", "package p; public class B {}");
+	    assertEquals(ProxyCompiler.RC_COMPILE_FAILURE, compiler.compile("p.B"));
+	    assertTrue(compiler.getLastFailure("p.B").getErr().indexOf("stub") >= 0);
+	    assertSame(fake, compiler.daemon);
+	    assertTrue(first.process.isAlive());
+	    synchronized (requests) {
+		assertEquals(1, requests[0]);
+	    }
+	} finally {
+	    server.close();
+	}
+    }
+
+    /**
+     * The cache key follows the JVM the daemon runs on.
+    **/
+    public void testIdentityIncludesDaemonJava() throws Exception
+    {
+	String identity = compiler.getCompilerIdentity();
+	assertTrue(identity, identity.indexOf(compiler.getJava()) >= 0);
+	assertTrue(identity, identity.indexOf(System.getProperty("java.version")) >= 0);
+
+	File other = writeScript("java", "echo 'openjdk version \"99\"' >&2");
+	compiler.setJava(other.getPath());
+	String otherIdentity = compiler.getCompilerIdentity();
+	assertTrue(otherIdentity, otherIdentity.indexOf("openjdk version \"99\"") >= 0);
+	assertFalse(identity.equals(otherIdentity));
+    }
+
+    protected KDaemonCompiler compiler;
+}
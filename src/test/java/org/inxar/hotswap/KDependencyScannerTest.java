@@ -0,0 +1,135 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Checks the classnames <code>KDependencyScanner</code> reads from
+ * classfiles compiled by the system compiler.
+**/
+public class KDependencyScannerTest extends HotswapTestCase
+{
+    public void testFindsEveryKindOfReference() throws Exception
+    {
+	writeSource("p.Field", "package p; public class Field {}");
+	writeSource("p.Param", "package p; public class Param {}");
+	writeSource("p.Ret", "package p; public class Ret {}");
+	writeSource("p.Created", "package p; public class Created {}");
+	writeSource("p.Called", "package p; public class Called { public static long f(double d) { return 0; } }");
+	writeSource("p.Elem", "package p; public class Elem {}");
+	writeSource("p.Outer", "package p; public class Outer { public static class Inner {} }");
+	writeSource("p.Unused", "package p; public class Unused {}");
+	writeSource("p.Main",
+		    "package p;\n"
+		    + "public class Main {\n"
+		    + "    static final long BIG = 1L << 40;\n"
+		    + "    static final double PI = 3.14159;\n"
+		    + "    Field field;\n"
+		    + "    Ret m(Param p) { return null; }\n"
+		    + "    Object make() { return new Created(); }\n"
+		    + "    long call() { return Called.f(PI) + BIG; }\n"
+		    + "    Object arr() { return new Elem[2][]; }\n"
+		    + "    Object nested() { return new Outer.Inner(); }\n"
+		    + "    Runnable lambda() { return () -> System.out.println(\"x\"); }\n"
+		    + "    Object anon() { return new Object() {}; }\n"
+		    + "}\n");
+	javac();
+
+	Set names = KDependencyScanner.scan(classfile("p.Main"));
+	assertTrue(names.containsAll(Arrays.asList(new String[]{
+	    "p.Field", "p.Param", "p.Ret", "p.Created", "p.Called",
+	    "p.Elem", "p.Outer", "java.lang.Object", "java.lang.Runnable",
+	    "java.lang.System", "java.io.PrintStream" })));
+	assertFalse("own name", names.contains("p.Main"));
+	assertFalse("unreferenced class", names.contains("p.Unused"));
+	for (Object name : names)
+	    assertTrue("nested part kept: " + name, ((String)name).indexOf('$') < 0);
+    }
+
+    public void testNestedClassReportsItsOuterReferences() throws Exception
+    {
+	writeSource("p.Dep", "package p; public class Dep {}");
+	writeSource("p.Host", "package p; public class Host { class In { Dep d; } }");
+	javac();
+
+	Set names = KDependencyScanner.scan(classfile("p.Host$In"));
+	assertTrue(names.contains("p.Dep"));
+	assertFalse("own top-level name", names.contains("p.Host"));
+    }
+
+    public void testRejectsNonClassfile() throws Exception
+    {
+	try {
+	    KDependencyScanner.scan(new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8 });
+	    fail("expected IOException");
+	} catch (IOException expected) {
+	}
+    }
+
+    public void testTop()
+    {
+	assertEquals("a.B", KDependencyScanner.top("a.B"));
+	assertEquals("a.B", KDependencyScanner.top("a.B$C$1"));
+    }
+
+    // ================================
+    // Private Methods
+    // ================================
+
+    private void javac() throws IOException
+    {
+	Set files = new HashSet();
+	collect(src, files);
+	String[] args = new String[files.size() + 2];
+	args[0] = "-d";
+	args[1] = out.getPath();
+	int i = 2;
+	for (Object f : files)
+	    args[i++] = (String)f;
+
+	JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+	assertEquals("javac exit code", 0, javac.run(null, null, null, args));
+    }
+
+    private static void collect(File dir, Set files)
+    {
+	File[] fs = dir.listFiles();
+	for (int i = 0; i < fs.length; i++) {
+	    if (fs[i].isDirectory())
+		collect(fs[i], files);
+	    else
+		files.add(fs[i].getPath());
+	}
+    }
+
+    private byte[] classfile(String className) throws IOException
+    {
+	return Files.readAllBytes(new File(out, className.replace('.', File.separatorChar) + ".class").toPath());
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.ToolProvider;
+
+/**
+ * Feeds javac's printed output to a <code>KDiagnosticParser</code>
+ * and checks the diagnostics it recognizes.
+**/
+public class KDiagnosticParserTest extends HotswapTestCase
+{
+    static final String NL = ProxyEvent.NL;
+
+    public void testErrorWithExcerptAndSymbol() throws Exception
+    {
+	Parser p = parse("Foo.java:3: error: cannot find symbol\n"
+			 + "        x = y;\n"
+			 + "            ^\n"
+			 + "  symbol:   variable y\n"
+			 + "  location: class Foo\n"
+			 + "1 error\n");
+
+	assertEquals(1, p.getDiagnostics().size());
+	ProxyDiagnostic d = (ProxyDiagnostic)p.getDiagnostics().get(0);
+	assertEquals(ProxyDiagnostic.KIND_ERROR, d.getKind());
+	assertEquals("Foo.java", d.getSource());
+	assertEquals(3, d.getLine());
+	assertEquals(13, d.getColumn());
+	assertNull(d.getCode());
+	assertEquals("cannot find symbol" + NL
+		     + "  symbol:   variable y" + NL
+		     + "  location: class Foo", d.getMessage());
+
+	assertEquals(p.getDiagnostics(), p.reported);
+	assertEquals(1, p.others.size());
+	assertEquals("1 error", p.others.get(0));
+    }
+
+    public void testWarningsNotesAndSummaries() throws Exception
+    {
+	Parser p = parse("C:\\src\\a b\\Foo.java:7: warning: [deprecation] f() in Bar has been deprecated\n"
+			 + "        new Bar().f();\n"
+			 + "                 ^\n"
+			 + "Foo.java:9: warning: [rawtypes] found raw type: List\n"
+			 + "        List l;\n"
+			 + "        ^\n"
+			 + "  missing type arguments for generic class List<E>\n"
+			 + "Note: Some input files use unchecked or unsafe operations.\n"
+			 + "Note: Recompile with -Xlint:unchecked for details.\n"
+			 + "2 warnings\n");
+
+	List ds = p.getDiagnostics();
+	assertEquals(4, ds.size());
+
+	ProxyDiagnostic d = (ProxyDiagnostic)ds.get(0);
+	assertEquals(ProxyDiagnostic.KIND_WARNING, d.getKind());
+	assertEquals("C:\\src\\a b\\Foo.java", d.getSource());
+	assertEquals(7, d.getLine());
+	assertEquals(18, d.getColumn());
+	assertEquals("deprecation", d.getCode());
+	assertEquals("[deprecation] f() in Bar has been deprecated", d.getMessage());
+
+	d = (ProxyDiagnostic)ds.get(1);
+	assertEquals("rawtypes", d.getCode());
+	assertEquals(9, d.getLine());
+	assertEquals(9, d.getColumn());
+	assertEquals("[rawtypes] found raw type: List" + NL
+		     + "  missing type arguments for generic class List<E>", d.getMessage());
+
+	d = (ProxyDiagnostic)ds.get(2);
+	assertEquals(ProxyDiagnostic.KIND_NOTE, d.getKind());
+	assertNull(d.getSource());
+	assertEquals(ProxyDiagnostic.NOPOS, d.getLine());
+	assertEquals(ProxyDiagnostic.NOPOS, d.getColumn());
+	assertEquals("Some input files use unchecked or unsafe operations.", d.getMessage());
+
+	assertEquals(1, p.others.size());
+	assertEquals("2 warnings", p.others.get(0));
+    }
+
+    public void testLinesBeforeAnyDiagnosticAreOther() throws Exception
+    {
+	Parser p = parse("javac: invalid flag: -bogus\n"
+			 + "Usage: javac <options> <source files>\n");
+	assertTrue(p.getDiagnostics().isEmpty());
+	assertEquals(2, p.others.size());
+	assertEquals("javac: invalid flag: -bogus", p.others.get(0));
+    }
+
+    /**
+     * Lines may be split across writes, end in CRLF, or have no
+     * terminator at all; the text is passed on unchanged.
+    **/
+    public void testChunkedWritesAndPassThrough() throws Exception
+    {
+	String text = "Foo.java:1: error: ';' expected\r\n"
+	    + "class Foo { int x }\r\n"
+	    + "                 ^\r\n"
+	    + "1 error";
+	StringWriter copy = new StringWriter();
+	Parser p = new Parser(copy);
+	for (int i = 0; i < text.length(); i += 3)
+	    p.write(text, i, Math.min(3, text.length() - i));
+
+	assertTrue("reported before the next diagnostic starts", p.reported.isEmpty());
+	p.close();
+
+	assertEquals(text, copy.toString());
+	assertEquals(1, p.getDiagnostics().size());
+	ProxyDiagnostic d = (ProxyDiagnostic)p.getDiagnostics().get(0);
+	assertEquals(1, d.getLine());
+	assertEquals(18, d.getColumn());
+	assertEquals("';' expected", d.getMessage());
+	assertEquals("1 error", p.others.get(0));
+    }
+
+    /**
+     * Parses what the system compiler actually prints.
+    **/
+    public void testParsesJavacOutput() throws Exception
+    {
+	writeSource("p.Broken",
+		    "package p;\n"
+		    + "public class Broken {\n"
+		    + "    int f() { return missing; }\n"
+		    + "    int g() { return \"s\"; }\n"
+		    + "}\n");
+	File source = new File(src, "p/Broken.java");
+	ByteArrayOutputStream err = new ByteArrayOutputStream();
+	int rc = ToolProvider.getSystemJavaCompiler().run
+	    (null, null, err, new String[]{ "-d", out.getPath(), source.getPath() });
+	assertTrue(rc != 0);
+
+	Parser p = parse(err.toString());
+	List ds = p.getDiagnostics();
+	assertEquals(2, ds.size());
+
+	ProxyDiagnostic d = (ProxyDiagnostic)ds.get(0);
+	assertTrue(d.isError());
+	assertEquals(source.getPath(), d.getSource());
+	assertEquals(3, d.getLine());
+	assertEquals(22, d.getColumn());
+	assertTrue(d.getMessage().indexOf("missing") >= 0);
+
+	d = (ProxyDiagnostic)ds.get(1);
+	assertEquals(4, d.getLine());
+	assertEquals(22, d.getColumn());
+
+	assertEquals("2 errors", p.others.get(p.others.size() - 1));
+    }
+
+    // ================================
+    // Helpers
+    // ================================
+
+    static Parser parse(String text) throws Exception
+    {
+	Parser p = new Parser(null);
+	p.write(text);
+	p.close();
+	return p;
+    }
+
+    /**
+     * Records what is passed to the hooks.
+    **/
+    static class Parser extends KDiagnosticParser
+    {
+	Parser(java.io.Writer out)
+	{
+	    super(out);
+	}
+
+	protected void report(ProxyDiagnostic diagnostic)
+	{
+	    reported.add(diagnostic);
+	}
+
+	protected void other(String line)
+	{
+	    others.add(line);
+	}
+
+	final List reported = new ArrayList();
+	final List others = new ArrayList();
+    }
+}
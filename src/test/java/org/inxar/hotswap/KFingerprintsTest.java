@@ -0,0 +1,162 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import junit.framework.TestCase;
+
+/**
+ * Checks the content hashes of <code>KFingerprints</code> and when
+ * it reads a resource again.
+**/
+public class KFingerprintsTest extends TestCase
+{
+    public void testFnv1aVectors() throws Exception
+    {
+	assertEquals(0xcbf29ce484222325L, hash(""));
+	assertEquals(0xaf63dc4c8601ec8cL, hash("a"));
+	assertEquals(0x85944171f73967e8L, hash("foobar"));
+    }
+
+    public void testSettledResourceIsReadOnce() throws Exception
+    {
+	Source r = new Source("one", System.currentTimeMillis() - 10000);
+	long h = fp.hash(r);
+	assertEquals(h, fp.hash(r));
+	assertEquals(h, fp.hash(r));
+	assertEquals(1, r.reads);
+    }
+
+    public void testChangedSizeOrTimeIsReadAgain() throws Exception
+    {
+	long then = System.currentTimeMillis() - 10000;
+	Source r = new Source("one", then);
+	long one = fp.hash(r);
+
+	r.set("three", then);
+	long three = fp.hash(r);
+	assertTrue(one != three);
+
+	r.set("other", then - 1000);
+	assertTrue(three != fp.hash(r));
+	assertEquals(3, r.reads);
+    }
+
+    public void testRacyResourceIsNotReadOnEveryCall() throws Exception
+    {
+	Source r = new Source("one", System.currentTimeMillis());
+	for (int i = 0; i < 100; i++)
+	    fp.hash(r);
+	assertEquals(1, r.reads);
+    }
+
+    public void testRacyResourceIsReadOnceMoreWhenWindowCloses() throws Exception
+    {
+	// Modified just inside the window; a write of the same size
+	// keeps the same time of last modification.
+	long modified = System.currentTimeMillis() - KFingerprints.RACY_MILLIS + 300;
+	Source r = new Source("one", modified);
+	long one = fp.hash(r);
+	r.set("two", modified);
+	assertEquals(one, fp.hash(r));
+
+	Thread.sleep(500);
+	long two = fp.hash(r);
+	assertTrue(one != two);
+	assertEquals(2, r.reads);
+
+	// Settled from now on.
+	assertEquals(two, fp.hash(r));
+	assertEquals(2, r.reads);
+    }
+
+    public void testForgetReadsAgain() throws Exception
+    {
+	long now = System.currentTimeMillis();
+	Source r = new Source("one", now);
+	long one = fp.hash(r);
+	r.set("two", now);
+	fp.forget(r);
+	assertTrue(one != fp.hash(r));
+	assertEquals(2, r.reads);
+    }
+
+    public void testHashOrNull() throws Exception
+    {
+	Source r = new Source("one", 0);
+	r.exists = false;
+	assertNull(fp.hashOrNull(r));
+	r.exists = true;
+	assertEquals(Long.valueOf(hash("one")), fp.hashOrNull(r));
+    }
+
+    // ================================
+    // Private Methods
+    // ================================
+
+    private static long hash(String s) throws IOException
+    {
+	return KFingerprints.hash(new ByteArrayInputStream(s.getBytes("UTF-8")));
+    }
+
+    // ================================
+    // Inner Classes
+    // ================================
+
+    /**
+     * An in-memory resource that counts how often it is read.
+    **/
+    static class Source implements ProxyCompiler.Resource
+    {
+	Source(String text, long lastModified)
+	{
+	    set(text, lastModified);
+	}
+
+	void set(String text, long lastModified)
+	{
+	    this.bytes = text.getBytes();
+	    this.lastModified = lastModified;
+	}
+
+	public long lastModified() { return lastModified; }
+	public long length() { return bytes.length; }
+	public boolean exists() { return exists; }
+	public File toFile() { return null; }
+	public String toString() { return "mem:source"; }
+
+	public InputStream getInputStream()
+	{
+	    reads++;
+	    return new ByteArrayInputStream(bytes);
+	}
+
+	byte[] bytes;
+	long lastModified;
+	boolean exists = true;
+	int reads;
+    }
+
+    protected final KFingerprints fp = new KFingerprints();
+}
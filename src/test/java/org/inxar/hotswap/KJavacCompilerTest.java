@@ -0,0 +1,123 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks what <code>KJavacCompiler</code> writes, and that it keeps
+ * to the compile timeout.
+**/
+public class KJavacCompilerTest extends HotswapTestCase
+{
+    public void testWritesOnlyItsOwnClassfile() throws Exception
+    {
+	KJavacCompiler compiler = (KJavacCompiler)configure(new KJavacCompiler(getClass().getClassLoader()));
+	writeSource("p.C", "package p; public class C {}");
+	writeSource("p.B", "package p; public class B { C c; }");
+
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.B"));
+	assertTrue(new File(out, "p/B.class").isFile());
+	assertFalse(new File(out, "p/C.class").exists());
+    }
+
+    public void testAbandonsCompileAfterTimeout() throws Exception
+    {
+	KJavacCompiler compiler = (KJavacCompiler)configure(new KJavacCompiler(getClass().getClassLoader()));
+	final List events = new ArrayList();
+	compiler.addCompileListener(new ProxyEventListener() {
+		public void notify(ProxyEvent evt) {
+		    events.add(evt);
+		}
+	    });
+	writeBig();
+
+	compiler.setCompileTimeout(1);
+	assertEquals(ProxyCompiler.RC_COMPILE_TIMEOUT, compiler.compile("p.Big"));
+	assertEquals(1, events.size());
+	ProxyCompileEvent evt = (ProxyCompileEvent)events.get(0);
+	assertEquals(ProxyCompiler.RC_COMPILE_TIMEOUT, evt.getReturnCode());
+	assertEquals("Compile abandoned after 1 ms.", evt.getErr());
+
+	// Compiles while the abandoned one is still running.
+	writeSource("p.Small", "package p; public class Small {}");
+	compiler.setCompileTimeout(60000);
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.Small"));
+	assertTrue(new File(out, "p/Small.class").isFile());
+
+	awaitStagingDeleted();
+	assertFalse("output of the abandoned compile", new File(out, "p/Big.class").exists());
+    }
+
+    public void testInterruptIsNotATimeout() throws Exception
+    {
+	KJavacCompiler compiler = (KJavacCompiler)configure(new KJavacCompiler(getClass().getClassLoader()));
+	writeBig();
+
+	compiler.setCompileTimeout(60000);
+	Thread.currentThread().interrupt();
+	int rc = compiler.compile("p.Big");
+	assertTrue("interrupt kept", Thread.interrupted());
+	assertEquals(ProxyCompiler.RC_COMPILE_INTERRUPTED, rc);
+
+	awaitStagingDeleted();
+	assertFalse("output of the abandoned compile", new File(out, "p/Big.class").exists());
+    }
+
+    // ================================
+    // Helpers
+    // ================================
+
+    /**
+     * Writes a class with enough work that javac cannot compile it
+     * within a millisecond.
+    **/
+    private void writeBig() throws Exception
+    {
+	StringBuffer body = new StringBuffer("package p; public class Big {\n");
+	for (int i = 0; i < 2000; i++)
+	    body.append("    int f").append(i).append("(int x) { return x * ").append(i).append(" + f")
+		.append(Math.max(0, i - 1)).append("(x - 1); }\n");
+	body.append("}\n");
+	writeSource("p.Big", body.toString());
+    }
+
+    /**
+     * Waits for abandoned compiles to end, which delete their
+     * staging directories next to the destination when they do.
+    **/
+    private void awaitStagingDeleted() throws Exception
+    {
+	long deadline = System.currentTimeMillis() + 60000;
+	while (true) {
+	    String[] names = dir.list();
+	    boolean staging = false;
+	    for (int i = 0; i < names.length; i++)
+		staging |= names[i].startsWith(".hotswap-javac");
+	    if (!staging)
+		return;
+	    assertTrue("abandoned compile still running", System.currentTimeMillis() < deadline);
+	    Thread.sleep(50);
+	}
+    }
+}
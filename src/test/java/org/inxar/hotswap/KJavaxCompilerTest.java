@@ -0,0 +1,43 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+/**
+ * Checks how <code>KJavaxCompiler</code> abandons a compile.
+**/
+public class KJavaxCompilerTest extends HotswapTestCase
+{
+    public void testInterruptIsNotATimeout() throws Exception
+    {
+	KJavaxCompiler compiler = (KJavaxCompiler)configure(new KJavaxCompiler(getClass().getClassLoader()));
+	compiler.setCompileTimeout(60000);
+	writeSource("p.A", "package p; public class A {}");
+
+	Thread.currentThread().interrupt();
+	int rc = compiler.compile("p.A");
+	assertTrue("interrupt kept", Thread.interrupted());
+	assertEquals(ProxyCompiler.RC_COMPILE_INTERRUPTED, rc);
+
+	// The abandoned compile's session is not used again.
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.A"));
+	assertNotNull(compiler.classFiles.get("p.A"));
+    }
+}
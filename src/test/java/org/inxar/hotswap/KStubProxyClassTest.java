@@ -0,0 +1,92 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that calls through a <code>PROXY_STRATEGY_GENERATED</code>
+ * proxy allocate nothing once warmed up, for methods taking and
+ * returning primitives.
+**/
+public class KStubProxyClassTest extends HotswapTestCase
+{
+    /**
+     * The interface of the class under test; public so the compiled
+     * implementation can see it.
+    **/
+    public interface Arith
+    {
+	int add(int a, int b);
+	long twice(long x);
+	boolean not(boolean b);
+    }
+
+    public void testSteadyStateCallsAllocateNothing() throws Exception
+    {
+	writeSource("hs.ArithImpl",
+		    "package hs;\n"
+		    + "public class ArithImpl implements " + Arith.class.getCanonicalName() + " {\n"
+		    + "    public int add(int a, int b) { return a + b; }\n"
+		    + "    public long twice(long x) { return 2 * x; }\n"
+		    + "    public boolean not(boolean b) { return !b; }\n"
+		    + "}\n");
+
+	ProxyCompiler compiler = configure(new KJavaxCompiler(getClass().getClassLoader()));
+	compiler.setProxyStrategy(ProxyCompiler.PROXY_STRATEGY_GENERATED);
+	Arith arith = (Arith)compiler.load("hs.ArithImpl").newInstance();
+	assertTrue(arith instanceof ProxyStub);
+
+	com.sun.management.ThreadMXBean mx =
+	    (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	long tid = Thread.currentThread().getId();
+
+	// Warm up, so the stubs are linked and compiled.
+	long sum = calls(arith, CALLS);
+
+	// The first rounds can still catch one-off allocations (a
+	// deoptimization, a lazily created MXBean structure); the
+	// calls themselves must not allocate in any round.
+	long least = Long.MAX_VALUE;
+	for (int round = 0; round < 5 && least > 0; round++) {
+	    long before = mx.getThreadAllocatedBytes(tid);
+	    sum += calls(arith, CALLS);
+	    long after = mx.getThreadAllocatedBytes(tid);
+	    least = Math.min(least, after - before);
+	}
+
+	assertEquals("bytes allocated by " + 3 * CALLS + " calls (" + sum + ")", 0L, least);
+    }
+
+    private static long calls(Arith arith, int n)
+    {
+	long sum = 0;
+	for (int i = 0; i < n; i++) {
+	    sum += arith.add(i, 1);
+	    sum += arith.twice(i);
+	    if (arith.not((i & 1) == 0))
+		sum++;
+	}
+	return sum;
+    }
+
+    static final int CALLS = 1000000;
+}
@@ -0,0 +1,92 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.io.File;
+
+/**
+ * Compiles with <code>KSystemCompiler</code> running the
+ * <code>javac</code> found on the path.
+**/
+public class KSystemCompilerTest extends HotswapTestCase
+{
+    protected void setUp() throws Exception
+    {
+	super.setUp();
+	compiler = (KSystemCompiler)configure(new KSystemCompiler(getClass().getClassLoader(), "javac"));
+    }
+
+    /**
+     * A failed compile fails even if the classfile is written
+     * meanwhile, as a compile of another class could once do.
+    **/
+    public void testExitCodeDecides() throws Exception
+    {
+	writeSource("p.A", "package p; public class A {}");
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.A"));
+
+	final File classFile = new File(out, "p/A.class");
+	final File sourceFile = writeSource("p.A", "package p; public class A { int f() { return ; } }");
+	compiler.addOutputListener(new ProxyEventListener() {
+		public void notify(ProxyEvent evt) {
+		    classFile.setLastModified(sourceFile.lastModified() + 5000);
+		}
+	    });
+	assertEquals(ProxyCompiler.RC_COMPILE_FAILURE, compiler.compile("p.A"));
+    }
+
+    public void testWritesOnlyItsOwnClassfile() throws Exception
+    {
+	// javac finds sources on the classpath when there is no
+	// sourcepath.
+	compiler.getClasspath().add(src.getPath());
+	writeSource("p.C", "package p; public class C {}");
+	writeSource("p.B", "package p; public class B { C c; }");
+
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, compiler.compile("p.B"));
+	assertTrue(new File(out, "p/B.class").isFile());
+	assertFalse(new File(out, "p/C.class").exists());
+    }
+
+    /**
+     * The cache key follows the javac that is run, not the JVM.
+    **/
+    public void testIdentityIncludesCommandVersion() throws Exception
+    {
+	String identity = compiler.getCompilerIdentity();
+	assertTrue(identity, identity.indexOf("javac " + System.getProperty("java.specification.version")) >= 0);
+
+	File other = writeScript("javac", "echo javac 99.0 >&2");
+	String otherIdentity = configure(new KSystemCompiler(getClass().getClassLoader(), other.getPath()))
+	    .getCompilerIdentity();
+	assertTrue(otherIdentity, otherIdentity.indexOf("javac 99.0") >= 0);
+	assertFalse(identity.equals(otherIdentity));
+
+	// A compiler that cannot be identified is not cached.
+	File broken = writeScript("broken", "exit 2");
+	ProxyCompiler unknown = configure(new KSystemCompiler(getClass().getClassLoader(), broken.getPath()));
+	assertNull(unknown.getCompilerIdentity());
+	writeSource("p.A", "package p; public class A {}");
+	assertNull(unknown.getCacheKey("p.A", unknown.getSourceFile("p.A")));
+    }
+
+    protected KSystemCompiler compiler;
+}
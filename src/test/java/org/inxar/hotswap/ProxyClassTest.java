@@ -0,0 +1,255 @@
+/**
+ * $Id$
+ *
+ * Copyright (C) 2001 Paul Cody Johnston - pcj@inxar.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+ * 02111-1307, USA.
+ */
+package org.inxar.hotswap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks how a <code>ProxyClass</code> shares one hotswap attempt
+ * among concurrent callers, and how a draining class releases a
+ * replaced instance.
+**/
+public class ProxyClassTest extends HotswapTestCase
+{
+    /**
+     * The interface of the class under test; public so the compiled
+     * implementation can see it.
+    **/
+    public interface Worker
+    {
+	int version();
+	void block();
+    }
+
+    protected void setUp() throws Exception
+    {
+	super.setUp();
+	entered = new CountDownLatch(1);
+	gate = new CountDownLatch(1);
+	released.clear();
+	compiler = configure(new KJavaxCompiler(getClass().getClassLoader()));
+	// The worker implements ProxyObject.
+	compiler.getClasspath().add(location(ProxyObject.class));
+	compiler.addCompileListener(new ProxyEventListener() {
+		public void notify(ProxyEvent evt) {
+		    compiled((ProxyCompileEvent)evt);
+		}
+	    });
+    }
+
+    public void testConcurrentCallersShareOneAttempt() throws Exception
+    {
+	ProxyClass pc = load(1);
+	Worker w = (Worker)pc.newInstance();
+	compiles.clear();
+
+	writeWorker("2");
+	pc.setChanged();
+	boolean[] results = hotswapConcurrently(pc);
+
+	for (int i = 0; i < results.length; i++)
+	    assertTrue("caller " + i, results[i]);
+	assertEquals(1, compiles.size());
+	assertEquals(ProxyCompiler.RC_COMPILE_SUCCESS, ((ProxyCompileEvent)compiles.get(0)).getReturnCode());
+	assertEquals(2, w.version());
+    }
+
+    public void testBrokenSourceCompilesOnceForAllCallers() throws Exception
+    {
+	ProxyClass pc = load(1);
+	Worker w = (Worker)pc.newInstance();
+	compiles.clear();
+
+	writeWorker("2 +");
+	pc.setChanged();
+	boolean[] results = hotswapConcurrently(pc);
+
+	for (int i = 0; i < results.length; i++)
+	    assertFalse("caller " + i, results[i]);
+	assertEquals(1, compiles.size());
+	assertEquals(ProxyCompiler.RC_COMPILE_FAILURE, ((ProxyCompileEvent)compiles.get(0)).getReturnCode());
+	assertEquals(1, w.version());
+    }
+
+    public void testDrainingReleasesAfterCallsInFlight() throws Exception
+    {
+	drain(ProxyCompiler.PROXY_STRATEGY_REFLECT);
+    }
+
+    public void testDrainingReleasesAfterCallsInFlightGenerated() throws Exception
+    {
+	drain(ProxyCompiler.PROXY_STRATEGY_GENERATED);
+    }
+
+    // ================================
+    // Helpers
+    // ================================
+
+    /**
+     * Swaps in a new version of the worker while a call is still
+     * running on the old instance, checking that the old instance is
+     * released only once that call has returned.
+    **/
+    private void drain(int strategy) throws Exception
+    {
+	compiler.setProxyStrategy(strategy);
+	ProxyClass pc = load(1);
+	pc.isDraining(true);
+	final Worker w = (Worker)pc.newInstance();
+	assertEquals(1, w.version());
+
+	Thread caller = new Thread() {
+		public void run() {
+		    w.block();
+		}
+	    };
+	caller.start();
+	assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+	writeWorker("2");
+	pc.setChanged();
+	assertTrue(pc.hotswap());
+	assertEquals("new calls see the new instance", 2, w.version());
+	assertTrue("released while a call is in flight", released.isEmpty());
+
+	gate.countDown();
+	caller.join(10000);
+	assertFalse(caller.isAlive());
+	assertEquals(Collections.singletonList(Integer.valueOf(1)), released);
+    }
+
+    /**
+     * Calls <code>hotswap()</code> from several threads at once.  The
+     * compile listener holds the first compile until every other
+     * caller is waiting on the attempt in flight.
+    **/
+    private boolean[] hotswapConcurrently(final ProxyClass pc) throws Exception
+    {
+	final boolean[] results = new boolean[THREADS];
+	final Throwable[] errors = new Throwable[THREADS];
+	final CyclicBarrier start = new CyclicBarrier(THREADS);
+	Thread[] threads = new Thread[THREADS];
+	holding = pc;
+	try {
+	    for (int i = 0; i < THREADS; i++) {
+		final int k = i;
+		threads[i] = new Thread() {
+			public void run() {
+			    try {
+				start.await();
+				results[k] = pc.hotswap();
+			    } catch (Throwable t) {
+				errors[k] = t;
+			    }
+			}
+		    };
+		threads[i].start();
+	    }
+	    for (int i = 0; i < THREADS; i++) {
+		threads[i].join(30000);
+		assertFalse(threads[i].isAlive());
+		if (errors[i] != null)
+		    throw new AssertionError(errors[i]);
+	    }
+	} finally {
+	    holding = null;
+	}
+	return results;
+    }
+
+    private void compiled(ProxyCompileEvent evt)
+    {
+	compiles.add(evt);
+	ProxyClass pc = holding;
+	if (pc == null)
+	    return;
+	long deadline = System.currentTimeMillis() + 10000;
+	while (System.currentTimeMillis() < deadline) {
+	    CompletableFuture f = (CompletableFuture)pc.flight.get();
+	    if (f != null && f.getNumberOfDependents() >= THREADS - 1)
+		return;
+	    Thread.yield();
+	}
+	throw new IllegalStateException("callers did not join the attempt in flight");
+    }
+
+    private ProxyClass load(int version) throws Exception
+    {
+	writeWorker(String.valueOf(version));
+	return compiler.load("hs.WorkerImpl");
+    }
+
+    private void writeWorker(String version) throws Exception
+    {
+	String test = ProxyClassTest.class.getName();
+	writeSource("hs.WorkerImpl",
+		    "package hs;\n"
+		    + "public class WorkerImpl implements " + Worker.class.getCanonicalName() + ",\n"
+		    + "    org.inxar.hotswap.ProxyObject {\n"
+		    + "    final int version = " + version + ";\n"
+		    + "    public int version() { return version; }\n"
+		    + "    public void block() { " + test + ".block(); }\n"
+		    + "    public Object hotswap_get(Object key) { return null; }\n"
+		    + "    public boolean hotswap_onPrepare(Object old) { return true; }\n"
+		    + "    public void hotswap_onCommit() {}\n"
+		    + "    public void hotswap_onRollback() {}\n"
+		    + "    public void hotswap_onRelease() { " + test + ".released(version); }\n"
+		    + "}\n");
+    }
+
+    /**
+     * Called by the compiled worker: signals that a call has entered
+     * and waits for the test to let it go.
+    **/
+    public static void block()
+    {
+	entered.countDown();
+	try {
+	    gate.await(10, TimeUnit.SECONDS);
+	} catch (InterruptedException iex) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * Called by the compiled worker when an instance is released.
+    **/
+    public static void released(int version)
+    {
+	released.add(Integer.valueOf(version));
+    }
+
+    static final int THREADS = 8;
+
+    static volatile CountDownLatch entered;
+    static volatile CountDownLatch gate;
+    static final List released = Collections.synchronizedList(new ArrayList());
+
+    protected ProxyCompiler compiler;
+    protected final List compiles = Collections.synchronizedList(new ArrayList());
+    protected volatile ProxyClass holding;
+}